@@ -0,0 +1,235 @@
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+
+/**
+ * Benchmark suite for the library system: loading, command throughput, the overdue sweep and display rendering.
+ * Workloads come from {@link WorkloadGenerator} with a fixed seed and overdue checks use the command dates,
+ * so two runs with the same settings measure exactly the same work.
+ * <p>
+ * Every benchmark runs a number of warmup iterations, then measured iterations; the report gives the mean
+ * and standard deviation of the operations per second. Results can also be written as CSV to compare runs.
+ * <p>
+ * Usage: java LibraryBenchmark [--items=N] [--users=N] [--commands=N] [--warmup=N] [--iterations=N]
+ * [--only=name] [--csv=path]
+ */
+public class LibraryBenchmark {
+    private final RunOptions options;
+    private final int warmup;
+    private final int iterations;
+    private final List<String> results = new ArrayList<>();
+
+    LibraryBenchmark(RunOptions options) {
+        this.options = options;
+        this.warmup = options.getInt("warmup", 3);
+        this.iterations = options.getInt("iterations", 5);
+    }
+
+    /**
+     * A piece of work measured by the suite. Only {@link #run()} is timed.
+     */
+    abstract static class Workload {
+        /**
+         * Prepares the state for the next run; not included in the measurement.
+         *
+         * @throws Exception if the preparation fails
+         */
+        void setUp() throws Exception {
+        }
+
+        /**
+         * Runs the work once.
+         *
+         * @return number of operations performed
+         * @throws Exception if the work fails
+         */
+        abstract long run() throws Exception;
+    }
+
+    /**
+     * Creates a workload without a setup step.
+     */
+    private static Workload workload(Callable<Long> body) {
+        return new Workload() {
+            @Override
+            long run() throws Exception {
+                return body.call();
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LibraryBenchmark(new RunOptions(args)).runAll();
+    }
+
+    void runAll() throws Exception {
+        int itemCount = options.getInt("items", 100000);
+        int userCount = options.getInt("users", 10000);
+        int commandCount = options.getInt("commands", 200000);
+        long seed = options.getInt("seed", 42);
+
+        Path workDir = Files.createTempDirectory("library-bench");
+        String itemsFile = workDir.resolve("items.txt").toString();
+        String usersFile = workDir.resolve("users.txt").toString();
+        WorkloadGenerator generator = new WorkloadGenerator(itemCount, userCount, seed);
+        generator.writeItems(itemsFile);
+        generator.writeUsers(usersFile);
+        List<String> commands = generator.commands(commandCount, 0);
+
+        System.out.printf(Locale.ROOT, "items=%d users=%d commands=%d warmup=%d iterations=%d%n",
+                itemCount, userCount, commandCount, warmup, iterations);
+
+        CatalogLoader loader = new CatalogLoader(Runtime.getRuntime().availableProcessors());
+        ItemCatalog items = loader.loadItems(itemsFile);
+
+        measure("loadItems", workload(() -> (long) loader.loadItems(itemsFile).size()));
+        measure("loadUsers", workload(() -> (long) loader.loadUsers(usersFile).size()));
+        measure("commands", new Workload() {
+            private CommandProcessor processor;
+
+            @Override
+            void setUp() {
+                processor = newProcessor(items, loader.loadUsers(usersFile));
+            }
+
+            @Override
+            long run() {
+                return replay(processor, commands);
+            }
+        });
+        measure("commandsBatchedByDay", new Workload() {
+            private CommandProcessor processor;
+
+            @Override
+            void setUp() {
+                processor = newProcessor(items, loader.loadUsers(usersFile));
+                processor.batchByDay = true;
+            }
+
+            @Override
+            long run() {
+                return replay(processor, commands);
+            }
+        });
+        measure("overdueSweep", new Workload() {
+            private CommandProcessor processor;
+            private final CsvRecord trigger = new CsvRecord();
+
+            @Override
+            void setUp() {
+                processor = newProcessor(items, loader.loadUsers(usersFile));
+                fillLoans(processor, items, userCount);
+                trigger.set("borrow," + WorkloadGenerator.userId(0) + "," + WorkloadGenerator.itemId(0)
+                        + ",01/01/2030");
+            }
+
+            @Override
+            long run() {
+                long active = processor.loans.size();
+                processor.processCommand(trigger);
+                return active;
+            }
+        });
+        CommandProcessor displayed = newProcessor(items, loader.loadUsers(usersFile));
+        fillLoans(displayed, items, userCount);
+        measure("displayItems", workload(() -> replay(displayed, Arrays.asList("displayItems")) * items.size()));
+        measure("displayUsers", workload(() ->
+                replay(displayed, Arrays.asList("displayUsers")) * displayed.users.size()));
+
+        Files.delete(Paths.get(itemsFile));
+        Files.delete(Paths.get(usersFile));
+        Files.delete(workDir);
+
+        String csv = options.get("csv", null);
+        if (csv != null) {
+            try (PrintWriter out = new PrintWriter(csv)) {
+                out.println("benchmark,ops_per_second,stddev,iterations");
+                results.forEach(out::println);
+            }
+        }
+    }
+
+    /**
+     * Creates a processor that discards its output and takes "today" from the command dates.
+     */
+    private static CommandProcessor newProcessor(ItemCatalog items, IntRegistry<User> users) {
+        OutputSink sink = new OutputSink(new NullWriter(), OutputSink.DEFAULT_BUFFER_SIZE,
+                OutputSink.FlushPolicy.ON_EXIT, 1);
+        return new CommandProcessor(items, users, sink, LibraryClock.commandDate());
+    }
+
+    /**
+     * Lends one normal item to every user, all on the same date.
+     */
+    private static void fillLoans(CommandProcessor processor, ItemCatalog items, int userCount) {
+        CsvRecord record = new CsvRecord();
+        int next = 0;
+        for (int user = 0; user < userCount && next < items.size(); user++) {
+            while (next < items.size() && !"normal".equals(items.typeAt(next))) {
+                next++;
+            }
+            if (next < items.size()) {
+                record.set("borrow," + WorkloadGenerator.userId(user) + "," + items.keyAt(next++) + ",01/01/2025");
+                processor.processCommand(record);
+            }
+        }
+    }
+
+    private static long replay(CommandProcessor processor, List<String> commands) {
+        CsvRecord record = new CsvRecord();
+        for (String command : commands) {
+            record.set(command);
+            processor.processCommand(record);
+        }
+        return commands.size();
+    }
+
+    private void measure(String name, Workload workload) throws Exception {
+        String only = options.get("only", null);
+        if (only != null && !only.equals(name)) {
+            return;
+        }
+        for (int i = 0; i < warmup; i++) {
+            workload.setUp();
+            workload.run();
+        }
+        double[] rates = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            workload.setUp();
+            long start = System.nanoTime();
+            long operations = workload.run();
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            rates[i] = operations * 1e9 / elapsed;
+        }
+        double mean = Arrays.stream(rates).average().orElse(0);
+        double variance = Arrays.stream(rates).map(r -> (r - mean) * (r - mean)).sum() / Math.max(1, iterations - 1);
+        double stddev = Math.sqrt(variance);
+        System.out.printf(Locale.ROOT, "%-14s %14.1f ops/s  +- %10.1f%n", name, mean, stddev);
+        results.add(String.format(Locale.ROOT, "%s,%.1f,%.1f,%d", name, mean, stddev, iterations));
+    }
+
+    /**
+     * Writer that discards everything, so that rendering is measured without disk I/O.
+     */
+    private static class NullWriter extends Writer {
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+
+/**
+ * Checks that running commands on a {@link ConcurrentCommandRunner} writes exactly the output of running them
+ * one by one. The workload comes from {@link WorkloadGenerator} with reservations and reports mixed in, so
+ * items are handed over to waiting users while other commands run in parallel, and overdue checks use the
+ * command dates. The parallel run is repeated, since a wrong result may depend on thread timing.
+ * <p>
+ * Usage: java ParallelCheck [--items=N] [--users=N] [--commands=N] [--seed=N] [--workers=N] [--lock-stripes=N]
+ * [--runs=N]
+ * <p>
+ * Exits with status 1 and names the first differing line if any parallel run differs from the serial run.
+ */
+public class ParallelCheck {
+
+    public static void main(String[] args) throws Exception {
+        RunOptions options = new RunOptions(args);
+        int itemCount = options.getInt("items", 5000);
+        int userCount = options.getInt("users", 800);
+        int commandCount = options.getInt("commands", 60000);
+        int workers = options.getInt("workers", 8);
+        int stripes = options.getInt("lock-stripes", 16);
+        int runs = options.getInt("runs", 3);
+
+        Path workDir = Files.createTempDirectory("library-check");
+        String itemsFile = workDir.resolve("items.txt").toString();
+        String usersFile = workDir.resolve("users.txt").toString();
+        WorkloadGenerator generator = new WorkloadGenerator(itemCount, userCount, options.getInt("seed", 7));
+        generator.writeItems(itemsFile);
+        generator.writeUsers(usersFile);
+        List<String> commands = generator.commands(commandCount, 0, true);
+
+        CatalogLoader loader = new CatalogLoader(Runtime.getRuntime().availableProcessors());
+        ItemCatalog items = loader.loadItems(itemsFile);
+        String serial = run(items, loader.loadUsers(usersFile), commands, 1, stripes);
+        int failed = 0;
+        for (int i = 1; i <= runs; i++) {
+            String parallel = run(items, loader.loadUsers(usersFile), commands, workers, stripes);
+            if (parallel.equals(serial)) {
+                System.out.println("run " + i + ": same output as the serial run");
+            } else {
+                System.out.println("run " + i + ": output differs from the serial run at line "
+                        + firstDifference(serial, parallel));
+                failed++;
+            }
+        }
+
+        Files.delete(Paths.get(itemsFile));
+        Files.delete(Paths.get(usersFile));
+        Files.delete(workDir);
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the commands on a fresh processor and returns its output.
+     *
+     * @param workers number of worker threads; 1 runs the commands one by one without a runner
+     */
+    private static String run(ItemCatalog items, IntRegistry<User> users, List<String> commands, int workers,
+                              int stripes) {
+        StringWriter text = new StringWriter();
+        OutputSink output = new OutputSink(text, OutputSink.DEFAULT_BUFFER_SIZE, OutputSink.FlushPolicy.ON_EXIT, 1);
+        CommandProcessor processor = new CommandProcessor(items, users, output, LibraryClock.commandDate());
+        CsvRecord record = new CsvRecord();
+        if (workers <= 1) {
+            for (String command : commands) {
+                record.set(command);
+                processor.processCommand(record);
+            }
+        } else {
+            ConcurrentCommandRunner runner = new ConcurrentCommandRunner(processor, workers, stripes, 4096);
+            try {
+                for (String command : commands) {
+                    record.set(command);
+                    runner.submit(record);
+                }
+                runner.finish();
+            } finally {
+                runner.close();
+            }
+        }
+        output.close();
+        return text.toString();
+    }
+
+    /**
+     * Returns the number of the first line, starting at 1, on which the two texts differ.
+     */
+    private static int firstDifference(String expected, String actual) {
+        String[] expectedLines = expected.split("\n", -1);
+        String[] actualLines = actual.split("\n", -1);
+        int line = 0;
+        while (line < expectedLines.length && line < actualLines.length
+                && expectedLines[line].equals(actualLines[line])) {
+            line++;
+        }
+        return line + 1;
+    }
+}
@@ -0,0 +1,196 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Generates synthetic items.txt, users.txt and commands.txt files in the same format as the files in input/.
+ * The same seed and sizes always produce the same files, so benchmark results stay comparable between runs.
+ * <p>
+ * Usage: java WorkloadGenerator outputDir items users commands [seed] [holds]
+ * <p>
+ * With "holds", the commands also reserve borrowed items, cancel reservations and ask for the penalty and
+ * availability reports, e.g. to check that parallel runs hand reserved items over like serial runs.
+ */
+public class WorkloadGenerator {
+    private static final String[] ITEM_TYPES = {"normal", "normal", "normal", "reference", "rare", "limited"};
+    private static final String[] CATEGORIES = {"Classic Fiction", "Science Fiction", "Romance", "Thriller",
+            "Non-Fiction", "Mystery", "History", "Science", "News", "Drama", "Sci-Fi", "Comedy"};
+    private static final String[] CREATORS = {"Harper Lee", "William Gibson", "Stieg Larsson", "Dan Brown",
+            "Daniel Kahneman", "Conde Nast", "Springer", "Robert Zemeckis", "Ridley Scott", "Quentin Tarantino"};
+    private static final String[] DEPARTMENTS = {"Computer Science", "Physics", "Biology", "Mathematics",
+            "Literature", "Electrical Engineering"};
+    private static final String[] FACULTIES = {"Engineering", "Science", "Arts"};
+    private static final String[] TITLES = {"Professor", "Associate Professor", "Assistant Professor"};
+
+    private final Random random;
+    private final int itemCount;
+    private final int userCount;
+
+    /**
+     * Creates a generator.
+     *
+     * @param itemCount number of items to generate
+     * @param userCount number of users to generate
+     * @param seed      seed of the random number generator
+     */
+    public WorkloadGenerator(int itemCount, int userCount, long seed) {
+        this.itemCount = itemCount;
+        this.userCount = userCount;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Returns the ID of the item with the given index.
+     */
+    static int itemId(int index) {
+        return 100000 + index;
+    }
+
+    /**
+     * Returns the ID of the user with the given index.
+     */
+    static int userId(int index) {
+        return 1000000 + index;
+    }
+
+    /**
+     * Writes the items file: roughly half books, a quarter magazines and a quarter DVDs.
+     *
+     * @param filePath path of the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeItems(String filePath) throws IOException {
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(filePath), 1 << 16))) {
+            for (int i = 0; i < itemCount; i++) {
+                String title = "Title " + i;
+                String creator = pick(CREATORS);
+                String category = pick(CATEGORIES);
+                String type = pick(ITEM_TYPES);
+                int kind = random.nextInt(4);
+                if (kind < 2) {
+                    out.println("B," + itemId(i) + "," + title + "," + creator + "," + category + "," + type);
+                } else if (kind == 2) {
+                    out.println("M," + itemId(i) + "," + title + "," + creator + "," + category + "," + type);
+                } else {
+                    out.println("D," + itemId(i) + "," + title + "," + creator + "," + category + ","
+                            + (80 + random.nextInt(100)) + " min," + type);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the users file: mostly students, some academic members and guests.
+     *
+     * @param filePath path of the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeUsers(String filePath) throws IOException {
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(filePath), 1 << 16))) {
+            for (int i = 0; i < userCount; i++) {
+                String name = "User " + i;
+                String phone = "555-" + (1000 + random.nextInt(9000));
+                int kind = random.nextInt(10);
+                if (kind < 6) {
+                    out.println("S," + name + "," + userId(i) + "," + phone + "," + pick(DEPARTMENTS) + ","
+                            + pick(FACULTIES) + "," + (1 + random.nextInt(4)));
+                } else if (kind < 8) {
+                    out.println("A," + name + "," + userId(i) + "," + phone + "," + pick(DEPARTMENTS) + ","
+                            + pick(FACULTIES) + "," + pick(TITLES));
+                } else {
+                    out.println("G," + name + "," + userId(i) + "," + phone + ",Researcher");
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates commands with non-decreasing borrow dates. Most commands are borrows; returns refer to
+     * earlier successful-looking borrows, and a display command is issued every displayInterval commands.
+     *
+     * @param commandCount    number of commands to generate
+     * @param displayInterval number of commands between display commands; 0 for none
+     * @return the command lines
+     */
+    public List<String> commands(int commandCount, int displayInterval) {
+        return commands(commandCount, displayInterval, false);
+    }
+
+    /**
+     * Generates commands with non-decreasing borrow dates, optionally with reservations and reports mixed in.
+     * Without them the commands are the same as those of {@link #commands(int, int)} for the same seed.
+     *
+     * @param commandCount    number of commands to generate
+     * @param displayInterval number of commands between display commands; 0 for none
+     * @param withHolds       if true, some commands reserve items that were borrowed, cancel reservations
+     *                        or write the penalty and availability reports
+     * @return the command lines
+     */
+    public List<String> commands(int commandCount, int displayInterval, boolean withHolds) {
+        List<String> commands = new ArrayList<>(commandCount);
+        List<int[]> borrowed = new ArrayList<>();
+        LocalDate date = LocalDate.of(2025, 1, 1);
+        for (int i = 0; i < commandCount; i++) {
+            if (displayInterval > 0 && i > 0 && i % displayInterval == 0) {
+                commands.add(random.nextBoolean() ? "displayUsers" : "displayItems");
+                continue;
+            }
+            if (random.nextInt(200) == 0) {
+                date = date.plusDays(1);
+            }
+            int action = random.nextInt(100);
+            if (action < 25 && !borrowed.isEmpty()) {
+                int[] loan = borrowed.remove(random.nextInt(borrowed.size()));
+                commands.add("return," + loan[0] + "," + loan[1]);
+            } else if (action < 35) {
+                commands.add("pay," + userId(random.nextInt(userCount)));
+            } else if (withHolds && action < 45 && !borrowed.isEmpty()) {
+                int item = borrowed.get(random.nextInt(borrowed.size()))[1];
+                commands.add("reserve," + userId(random.nextInt(userCount)) + "," + item);
+            } else if (withHolds && action < 47) {
+                commands.add("cancel," + userId(random.nextInt(userCount)));
+            } else if (withHolds && action < 48) {
+                commands.add(random.nextBoolean() ? "penalties,top=5" : "availability,kind=book");
+            } else {
+                int user = userId(random.nextInt(userCount));
+                int item = itemId(random.nextInt(itemCount));
+                borrowed.add(new int[]{user, item});
+                commands.add("borrow," + user + "," + item + "," + date.format(LibraryDates.FORMATTER));
+            }
+        }
+        return commands;
+    }
+
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    /**
+     * Writes items.txt, users.txt and commands.txt into the given directory.
+     *
+     * @param args output directory, number of items, users and commands, and an optional seed
+     * @throws IOException if the files cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.out.println("Usage: java WorkloadGenerator outputDir items users commands [seed] [holds]");
+            return;
+        }
+        String dir = args[0];
+        Files.createDirectories(Paths.get(dir));
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+        WorkloadGenerator generator = new WorkloadGenerator(Integer.parseInt(args[1]), Integer.parseInt(args[2]), seed);
+        generator.writeItems(Paths.get(dir, "items.txt").toString());
+        generator.writeUsers(Paths.get(dir, "users.txt").toString());
+        boolean withHolds = args.length > 5 && "holds".equals(args[5]);
+        Files.write(Paths.get(dir, "commands.txt"), generator.commands(Integer.parseInt(args[3]), 0, withHolds));
+    }
+}
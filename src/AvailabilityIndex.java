@@ -0,0 +1,252 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+
+/**
+ * Availability of the items on the shelf, by position in the item catalog.
+ * <p>
+ * A bitmap marks the borrowed items and is updated on every borrow, return and overdue removal; it only
+ * grows up to the highest borrowed position. The items of every kind (book, magazine, DVD), type and
+ * category are kept as sorted lists of positions, stored back to back per attribute, so every item
+ * appears once per attribute however many distinct values there are. The number of borrowed items of
+ * each kind, type and category is counted as the bitmap changes, so a count with a single filter is read
+ * directly. With several filters only the shortest matching list is walked and every position on it is
+ * checked against the other filters and the bitmap, without copying any set.
+ * <p>
+ * Events may arrive from different threads when commands run in parallel, so all methods are synchronized.
+ */
+public class AvailabilityIndex implements LibraryEventListener {
+    private static final String KINDS = "BMD";
+    private static final String[] KIND_NAMES = {"book", "magazine", "dvd"};
+
+    private final ItemCatalog items;
+    private final RowLists byKind;
+    private final RowLists byType;
+    private final RowLists byCategory;
+    private final BitSet borrowed = new BitSet();
+    private int borrowedCount = 0;
+    private final int[] borrowedByKind;
+    private final int[] borrowedByType;
+    private final int[] borrowedByCategory;
+
+    /**
+     * Creates the index of a catalog with every item available.
+     *
+     * @param items catalog of library items
+     */
+    public AvailabilityIndex(ItemCatalog items) {
+        this.items = items;
+        int size = items.size();
+        int[] kinds = new int[size];
+        int[] types = new int[size];
+        int[] categories = new int[size];
+        for (int row = 0; row < size; row++) {
+            kinds[row] = KINDS.indexOf(items.kindAt(row));
+            types[row] = items.typeCodeAt(row);
+            categories[row] = items.categoryCodeAt(row);
+        }
+        byKind = new RowLists(kinds, KINDS.length());
+        byType = new RowLists(types, items.typeCount());
+        byCategory = new RowLists(categories, items.categoryCount());
+        borrowedByKind = new int[KINDS.length()];
+        borrowedByType = new int[items.typeCount()];
+        borrowedByCategory = new int[items.categoryCount()];
+    }
+
+    /**
+     * Creates an index sharing the item lists of another index, with a copy of its borrowed items,
+     * e.g. for a scenario that starts from shared state.
+     *
+     * @param base the index to copy
+     */
+    public AvailabilityIndex(AvailabilityIndex base) {
+        synchronized (base) {
+            items = base.items;
+            byKind = base.byKind;
+            byType = base.byType;
+            byCategory = base.byCategory;
+            borrowed.or(base.borrowed);
+            borrowedCount = base.borrowedCount;
+            borrowedByKind = base.borrowedByKind.clone();
+            borrowedByType = base.borrowedByType.clone();
+            borrowedByCategory = base.borrowedByCategory.clone();
+        }
+    }
+
+    /**
+     * Returns the code of a kind name.
+     *
+     * @param name "book", "magazine" or "dvd"
+     * @return the kind code, or -1 for unknown names
+     */
+    public static int kindCode(String name) {
+        for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+            if (KIND_NAMES[kind].equals(name)) {
+                return kind;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Marks the item with the given ID as borrowed.
+     *
+     * @param itemId ID of the item
+     */
+    public synchronized void borrowed(int itemId) {
+        update(items.indexOf(itemId), false);
+    }
+
+    /**
+     * Marks the item with the given ID as back on the shelf.
+     *
+     * @param itemId ID of the item
+     */
+    public synchronized void returned(int itemId) {
+        update(items.indexOf(itemId), true);
+    }
+
+    private void update(int row, boolean onShelf) {
+        if (row < 0 || borrowed.get(row) != onShelf) {
+            return;
+        }
+        borrowed.set(row, !onShelf);
+        int change = onShelf ? -1 : 1;
+        borrowedCount += change;
+        borrowedByKind[KINDS.indexOf(items.kindAt(row))] += change;
+        borrowedByType[items.typeCodeAt(row)] += change;
+        borrowedByCategory[items.categoryCodeAt(row)] += change;
+    }
+
+    /**
+     * Returns the number of items matching the filters, or of those that are available.
+     * Every filter is a code, or -1 to leave it out.
+     *
+     * @param kind          kind code, see {@link #kindCode(String)}
+     * @param type          type code in the catalog
+     * @param category      category code in the catalog
+     * @param availableOnly if true, only available items are counted
+     */
+    public synchronized int count(int kind, int type, int category, boolean availableOnly) {
+        int filters = (kind >= 0 ? 1 : 0) + (type >= 0 ? 1 : 0) + (category >= 0 ? 1 : 0);
+        if (filters == 0) {
+            return items.size() - (availableOnly ? borrowedCount : 0);
+        }
+        if (filters == 1) {
+            if (kind >= 0) {
+                return byKind.size(kind) - (availableOnly ? borrowedByKind[kind] : 0);
+            }
+            if (type >= 0) {
+                return byType.size(type) - (availableOnly ? borrowedByType[type] : 0);
+            }
+            return byCategory.size(category) - (availableOnly ? borrowedByCategory[category] : 0);
+        }
+        return walk(kind, type, category, availableOnly, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Returns the positions of the items matching the filters, in ID order.
+     * Every filter is a code, or -1 to leave it out.
+     *
+     * @param kind          kind code, see {@link #kindCode(String)}
+     * @param type          type code in the catalog
+     * @param category      category code in the catalog
+     * @param availableOnly if true, only available items are returned
+     * @param limit         maximum number of positions returned
+     */
+    public synchronized int[] find(int kind, int type, int category, boolean availableOnly, int limit) {
+        int[] rows = new int[Math.min(limit, count(kind, type, category, availableOnly))];
+        walk(kind, type, category, availableOnly, rows.length, rows);
+        return rows;
+    }
+
+    /**
+     * Walks the shortest list selected by the filters, or the whole catalog without filters, and counts
+     * the positions that pass the other filters.
+     *
+     * @param rows receives the matching positions; may be null
+     * @return the number of matching positions, at most the limit
+     */
+    private int walk(int kind, int type, int category, boolean availableOnly, int limit, int[] rows) {
+        RowLists lists = null;
+        int code = -1;
+        if (kind >= 0) {
+            lists = byKind;
+            code = kind;
+        }
+        if (type >= 0 && (lists == null || byType.size(type) < lists.size(code))) {
+            lists = byType;
+            code = type;
+        }
+        if (category >= 0 && (lists == null || byCategory.size(category) < lists.size(code))) {
+            lists = byCategory;
+            code = category;
+        }
+        int from = lists == null ? 0 : lists.offsets[code];
+        int to = lists == null ? items.size() : lists.offsets[code + 1];
+        int count = 0;
+        for (int i = from; i < to && count < limit; i++) {
+            int row = lists == null ? i : lists.rows[i];
+            if ((availableOnly && borrowed.get(row))
+                    || (kind >= 0 && KINDS.indexOf(items.kindAt(row)) != kind)
+                    || (type >= 0 && items.typeCodeAt(row) != type)
+                    || (category >= 0 && items.categoryCodeAt(row) != category)) {
+                continue;
+            }
+            if (rows != null) {
+                rows[count] = row;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void itemBorrowed(Loan loan) {
+        borrowed(loan.item.id);
+    }
+
+    @Override
+    public void itemReturned(Loan loan) {
+        returned(loan.item.id);
+    }
+
+    @Override
+    public void loanOverdue(Loan loan, int penalty) {
+        returned(loan.item.id);
+    }
+
+    /**
+     * The positions of the items with every value of one attribute: the sorted positions of the items with
+     * code c are rows[offsets[c]] to rows[offsets[c + 1] - 1].
+     */
+    private static class RowLists {
+        final int[] offsets;
+        final int[] rows;
+
+        /**
+         * Groups the positions by code with a counting sort, which keeps them in ID order.
+         *
+         * @param codes the code of every position
+         * @param count number of distinct codes
+         */
+        RowLists(int[] codes, int count) {
+            offsets = new int[count + 1];
+            for (int code : codes) {
+                offsets[code + 1]++;
+            }
+            for (int code = 0; code < count; code++) {
+                offsets[code + 1] += offsets[code];
+            }
+            int[] next = Arrays.copyOf(offsets, count);
+            rows = new int[codes.length];
+            for (int row = 0; row < codes.length; row++) {
+                rows[next[codes[row]]++] = row;
+            }
+        }
+
+        int size(int code) {
+            return offsets[code + 1] - offsets[code];
+        }
+    }
+}
@@ -0,0 +1,199 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+
+/**
+ * Borrowing rules of a library branch: how many items each user category may hold, after how many
+ * days a loan is overdue, which item types each category may not borrow, and the penalty rules.
+ * <p>
+ * The rules can be loaded from a properties file, for example:
+ * <pre>
+ * student.maxItems=5
+ * student.overdueDays=30
+ * student.deny=reference
+ * guest.deny=rare,limited
+ * penalty.perOverdue=2
+ * penalty.blockAt=6
+ * </pre>
+ * Settings that are not given keep the built-in values of {@link #defaults()}, which are the only copy of
+ * the standard rules. Before use the rules are compiled against the item catalog into a table with one
+ * bitmask of allowed user categories per item type, so an eligibility check is a single array access.
+ */
+public class BorrowPolicy {
+
+    /** Category index of students. */
+    public static final int STUDENT = 0;
+    /** Category index of academic members. */
+    public static final int ACADEMIC = 1;
+    /** Category index of guests. */
+    public static final int GUEST = 2;
+
+    private static final String[] CATEGORY_NAMES = {"student", "academic", "guest"};
+
+    private final int[] maxItems = {5, 3, 1};
+    private final int[] overdueDays = {30, 15, 7};
+    private final Map<String, Integer> deniedCategories = new HashMap<>();
+    private int overduePenalty = 2;
+    private int blockingPenalty = 6;
+    private int[] allowedCategories = new int[0];
+    private ItemCatalog compiledFor;
+
+    private BorrowPolicy() {
+    }
+
+    /**
+     * Returns the built-in rules: students may hold 5 items for 30 days and may not borrow reference items,
+     * academic members 3 items for 15 days, and guests 1 item for 7 days and no rare or limited items.
+     * Every overdue loan adds 2$ to the penalty, and from 6$ on the user may not borrow.
+     */
+    public static BorrowPolicy defaults() {
+        BorrowPolicy policy = new BorrowPolicy();
+        policy.deny(STUDENT, "reference");
+        policy.deny(GUEST, "rare");
+        policy.deny(GUEST, "limited");
+        return policy;
+    }
+
+    /**
+     * Reads rules from a properties file. Settings missing from the file keep their built-in values;
+     * a "deny" setting replaces the built-in list of that category.
+     *
+     * @param filePath path of the policy file
+     * @return the rules
+     * @throws IOException if the file cannot be read
+     * @throws NumberFormatException if a number setting is not a number
+     */
+    public static BorrowPolicy load(String filePath) throws IOException {
+        Properties settings = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(filePath))) {
+            settings.load(reader);
+        }
+        BorrowPolicy policy = defaults();
+        for (int category = 0; category < CATEGORY_NAMES.length; category++) {
+            String name = CATEGORY_NAMES[category];
+            policy.maxItems[category] = intSetting(settings, name + ".maxItems", policy.maxItems[category]);
+            policy.overdueDays[category] = intSetting(settings, name + ".overdueDays", policy.overdueDays[category]);
+            String denied = settings.getProperty(name + ".deny");
+            if (denied != null) {
+                int bit = 1 << category;
+                policy.deniedCategories.replaceAll((type, categories) -> categories & ~bit);
+                for (String type : denied.split(",")) {
+                    if (!type.trim().isEmpty()) {
+                        policy.deny(category, type.trim());
+                    }
+                }
+            }
+        }
+        policy.overduePenalty = intSetting(settings, "penalty.perOverdue", policy.overduePenalty);
+        policy.blockingPenalty = intSetting(settings, "penalty.blockAt", policy.blockingPenalty);
+        return policy;
+    }
+
+    /**
+     * Returns the category index with the given name.
+     *
+     * @param name "student", "academic" or "guest"
+     * @return the category index, or -1 for unknown names
+     */
+    public static int category(String name) {
+        for (int category = 0; category < CATEGORY_NAMES.length; category++) {
+            if (CATEGORY_NAMES[category].equals(name)) {
+                return category;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of user categories.
+     */
+    public static int categoryCount() {
+        return CATEGORY_NAMES.length;
+    }
+
+    /**
+     * Returns the name of a category, e.g. "student".
+     *
+     * @param category category index
+     */
+    public static String categoryName(int category) {
+        return CATEGORY_NAMES[category];
+    }
+
+    private static int intSetting(Properties settings, String key, int defaultValue) {
+        String value = settings.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private void deny(int category, String type) {
+        deniedCategories.merge(type, 1 << category, (a, b) -> a | b);
+    }
+
+    /**
+     * Builds the eligibility table for the item types used in the given catalog.
+     * Must be called before {@link #canBorrow(User, int)} is used with that catalog.
+     * Compiling again for the same catalog does nothing, so processors sharing a catalog can share the policy.
+     *
+     * @param items the item catalog
+     */
+    public synchronized void compile(ItemCatalog items) {
+        if (items == compiledFor) {
+            return;
+        }
+        int allCategories = (1 << CATEGORY_NAMES.length) - 1;
+        int[] table = new int[items.typeCount()];
+        for (int code = 0; code < table.length; code++) {
+            Integer denied = deniedCategories.get(items.typeName(code));
+            table[code] = denied == null ? allCategories : allCategories & ~denied;
+        }
+        allowedCategories = table;
+        compiledFor = items;
+    }
+
+    /**
+     * Returns true if the user may borrow items of the given type.
+     *
+     * @param user     the user
+     * @param typeCode type code of the item in the compiled catalog
+     */
+    public boolean canBorrow(User user, int typeCode) {
+        return (allowedCategories[typeCode] & (1 << user.getCategory())) != 0;
+    }
+
+    /**
+     * Returns the maximum number of items the user may hold at the same time.
+     *
+     * @param user the user
+     */
+    public int maxItems(User user) {
+        return maxItems[user.getCategory()];
+    }
+
+    /**
+     * Returns the number of days after which a loan of the user is overdue.
+     *
+     * @param user the user
+     */
+    public int overdueDays(User user) {
+        return overdueDays[user.getCategory()];
+    }
+
+    /**
+     * Returns the penalty added for every overdue loan.
+     */
+    public int overduePenalty() {
+        return overduePenalty;
+    }
+
+    /**
+     * Returns the penalty amount from which a user may not borrow any more.
+     */
+    public int blockingPenalty() {
+        return blockingPenalty;
+    }
+}
@@ -0,0 +1,279 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+
+/**
+ * Loads items.txt and users.txt in parallel.
+ * The file is memory-mapped and split into chunks that start and end on line boundaries;
+ * every chunk is parsed on its own thread and the results are merged in file order.
+ * Items are stored in an {@link ItemCatalog} straight away, so the parsed item objects of a chunk
+ * can be dropped as soon as the chunk is done.
+ * Lines that cannot be parsed and repeated IDs are reported instead of stopping the program.
+ */
+public class CatalogLoader {
+    private static final long MAX_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private final int threads;
+
+    /**
+     * Creates a loader.
+     *
+     * @param threads number of threads used for parsing
+     */
+    public CatalogLoader(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Loads library items from the given file.
+     *
+     * @param filePath the path to items.txt
+     * @return the items, sorted by ID
+     */
+    public ItemCatalog loadItems(String filePath) {
+        ItemCatalog.Builder catalog = new ItemCatalog.Builder();
+        List<Chunk<ItemCatalog.Builder>> chunks =
+                readChunks(filePath, ItemParser::parse, ItemCatalog.Builder::new, ItemCatalog.Builder::add);
+        if (chunks == null) {
+            return catalog.build(null);
+        }
+        int lineOffset = 0;
+        for (Chunk<ItemCatalog.Builder> chunk : chunks) {
+            reportMalformed(filePath, "item", chunk, lineOffset);
+            catalog.addAll(chunk.parsed, chunk.lineNumbers, lineOffset);
+            lineOffset += chunk.lineCount;
+        }
+        List<int[]> duplicates = new ArrayList<>();
+        ItemCatalog items = catalog.build(duplicates);
+        for (int[] duplicate : duplicates) {
+            System.out.println("Error:" + filePath + ":" + duplicate[0] + ": duplicate item ID " + duplicate[1]);
+        }
+        return items;
+    }
+
+    /**
+     * Loads users from the given file.
+     *
+     * @param filePath the path to users.txt
+     * @return the users, sorted by ID
+     */
+    public IntRegistry<User> loadUsers(String filePath) {
+        return load(filePath, "user", UserParser::parse, user -> user.id);
+    }
+
+    /**
+     * Loads and parses a comma-separated file into a sorted registry.
+     * When the same ID appears more than once, the later line replaces the earlier one.
+     *
+     * @param filePath the path to the file
+     * @param kind     name of the record type, used in messages
+     * @param parser   converts a line into an object, returning null if the line is not recognized
+     * @param idOf     returns the ID of a parsed object
+     * @param <T>      type of the parsed objects
+     * @return the parsed objects, sorted by ID
+     */
+    <T> IntRegistry<T> load(String filePath, String kind, Function<CsvRecord, T> parser, ToIntFunction<T> idOf) {
+        IntRegistry.Builder<T> registry = new IntRegistry.Builder<>();
+        List<Chunk<List<T>>> chunks = readChunks(filePath, parser, ArrayList::new, List::add);
+        if (chunks == null) {
+            return registry.build(null);
+        }
+
+        int lineOffset = 0;
+        for (Chunk<List<T>> chunk : chunks) {
+            reportMalformed(filePath, kind, chunk, lineOffset);
+            for (int i = 0; i < chunk.parsed.size(); i++) {
+                T value = chunk.parsed.get(i);
+                registry.add(idOf.applyAsInt(value), value, lineOffset + chunk.lineNumbers[i]);
+            }
+            lineOffset += chunk.lineCount;
+        }
+        List<int[]> duplicates = new ArrayList<>();
+        IntRegistry<T> values = registry.build(duplicates);
+        for (int[] duplicate : duplicates) {
+            System.out.println("Error:" + filePath + ":" + duplicate[0] + ": duplicate " + kind + " ID " + duplicate[1]);
+        }
+        return values;
+    }
+
+    private static void reportMalformed(String filePath, String kind, Chunk<?> chunk, int lineOffset) {
+        for (int i = 0; i < chunk.errors.size(); i++) {
+            System.out.println("Error:" + filePath + ":" + (lineOffset + chunk.errorLineNumbers.get(i))
+                    + ": malformed " + kind + " line: " + chunk.errors.get(i));
+        }
+    }
+
+    /**
+     * Parses all chunks of a file.
+     *
+     * @param filePath the path to the file
+     * @param parser   converts a line into an object, returning null if the line is not recognized
+     * @param newStore creates the container collecting the objects of one chunk
+     * @param add      adds a parsed object to a container
+     * @param <T>      type of the parsed objects
+     * @param <S>      type of the container
+     * @return the parsed chunks in file order, or null if the file cannot be read
+     */
+    private <T, S> List<Chunk<S>> readChunks(String filePath, Function<CsvRecord, T> parser, Supplier<S> newStore,
+                                             BiConsumer<S, T> add) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            return parseChunks(channel, parser, newStore, add);
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            System.out.println("Error:" + filePath);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private <T, S> List<Chunk<S>> parseChunks(FileChannel channel, Function<CsvRecord, T> parser,
+                                              Supplier<S> newStore, BiConsumer<S, T> add)
+            throws IOException, InterruptedException, ExecutionException {
+        long size = channel.size();
+        List<Long> bounds = splitPoints(channel, size);
+        List<Chunk<S>> chunks = new ArrayList<>();
+        if (bounds.size() == 2) {
+            chunks.add(parseChunk(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), parser, newStore, add));
+            return chunks;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, bounds.size() - 1));
+        try {
+            List<Future<Chunk<S>>> futures = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.size(); i++) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY,
+                        bounds.get(i), bounds.get(i + 1) - bounds.get(i));
+                futures.add(pool.submit(() -> parseChunk(region, parser, newStore, add)));
+            }
+            for (Future<Chunk<S>> future : futures) {
+                chunks.add(future.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return chunks;
+    }
+
+    /**
+     * Chooses chunk boundaries so that every chunk ends right after a line break.
+     *
+     * @return the start offsets of all chunks, followed by the file size
+     */
+    private List<Long> splitPoints(FileChannel channel, long size) throws IOException {
+        long chunkCount = Math.max(threads * 4L, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        long target = Math.max(1, (size + chunkCount - 1) / chunkCount);
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long start = 0;
+        while (start + target < size) {
+            long position = start + target;
+            long lineEnd = -1;
+            while (lineEnd < 0 && position < size) {
+                probe.clear();
+                int read = channel.read(probe, position);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        lineEnd = position + i + 1;
+                        break;
+                    }
+                }
+                position += read;
+            }
+            if (lineEnd < 0 || lineEnd >= size) {
+                break;
+            }
+            bounds.add(lineEnd);
+            start = lineEnd;
+        }
+        bounds.add(size);
+        return bounds;
+    }
+
+    private <T, S> Chunk<S> parseChunk(ByteBuffer bytes, Function<CsvRecord, T> parser, Supplier<S> newStore,
+                                       BiConsumer<S, T> add) throws IOException {
+        CharBuffer text = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(bytes);
+        char[] chars = text.array();
+        int end = text.arrayOffset() + text.limit();
+        Chunk<S> chunk = new Chunk<>(newStore.get());
+        CsvRecord record = new CsvRecord();
+        int lineStart = text.arrayOffset();
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && chars[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int length = lineEnd - lineStart;
+            if (length > 0 && chars[lineEnd - 1] == '\r') {
+                length--;
+            }
+            chunk.lineCount++;
+            if (length > 0) {
+                record.set(chars, lineStart, length);
+                T value = null;
+                try {
+                    value = parser.apply(record);
+                } catch (RuntimeException e) {
+                    // reported below together with unrecognized types
+                }
+                if (value == null) {
+                    chunk.errors.add(record.toString());
+                    chunk.errorLineNumbers.add(chunk.lineCount);
+                } else {
+                    add.accept(chunk.parsed, value);
+                    chunk.addLineNumber(chunk.lineCount);
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return chunk;
+    }
+
+    /**
+     * Parsing result of one chunk; line numbers are relative to the start of the chunk.
+     *
+     * @param <S> type of the container holding the parsed objects
+     */
+    private static class Chunk<S> {
+        final S parsed;
+        int[] lineNumbers = new int[64];
+        int parsedCount = 0;
+        final List<String> errors = new ArrayList<>();
+        final List<Integer> errorLineNumbers = new ArrayList<>();
+        int lineCount = 0;
+
+        Chunk(S parsed) {
+            this.parsed = parsed;
+        }
+
+        void addLineNumber(int line) {
+            if (parsedCount == lineNumbers.length) {
+                lineNumbers = Arrays.copyOf(lineNumbers, parsedCount * 2);
+            }
+            lineNumbers[parsedCount++] = line;
+        }
+    }
+}
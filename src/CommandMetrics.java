@@ -0,0 +1,233 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+/**
+ * Collects per-command counts and latency histograms, borrow rejection reasons, overdue penalties
+ * and the time spent on output I/O. The figures can be written periodically to a summary file
+ * and are also published as a JMX MBean.
+ */
+public class CommandMetrics implements LibraryEventListener, CommandMetricsMBean {
+    private static final String[] COMMANDS = {"borrow", "return", "pay", "displayUsers", "displayItems",
+            "snapshot", "search", "penalties", "availability", "reserve", "cancel", "unknown"};
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[COMMANDS.length];
+    private final LatencyHistogram allLatencies = new LatencyHistogram();
+    private final AtomicLongArray rejections = new AtomicLongArray(Rejection.values().length);
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong returns = new AtomicLong();
+    private final AtomicLong payments = new AtomicLong();
+    private final AtomicLong overduePenalties = new AtomicLong();
+    private final OutputSink output;
+    private ScheduledExecutorService reporter;
+
+    /**
+     * Creates an empty set of metrics.
+     *
+     * @param output the output sink whose I/O time is reported
+     */
+    public CommandMetrics(OutputSink output) {
+        this.output = output;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    private static int indexOf(String command) {
+        for (int i = 0; i < COMMANDS.length - 1; i++) {
+            if (COMMANDS[i].equals(command)) {
+                return i;
+            }
+        }
+        return COMMANDS.length - 1;
+    }
+
+    @Override
+    public void commandCompleted(String command, long elapsedNanos) {
+        latencies[indexOf(command)].record(elapsedNanos);
+        allLatencies.record(elapsedNanos);
+    }
+
+    @Override
+    public void itemBorrowed(Loan loan) {
+        borrows.incrementAndGet();
+    }
+
+    @Override
+    public void itemReturned(Loan loan) {
+        returns.incrementAndGet();
+    }
+
+    @Override
+    public void penaltyPaid(User user, int amount) {
+        payments.incrementAndGet();
+    }
+
+    @Override
+    public void loanOverdue(Loan loan, int penalty) {
+        overduePenalties.incrementAndGet();
+    }
+
+    @Override
+    public void borrowRejected(User user, LibraryItem item, Rejection reason) {
+        rejections.incrementAndGet(reason.ordinal());
+    }
+
+    /**
+     * Rewrites the summary file at a fixed interval on a background thread, and once more when stopped.
+     *
+     * @param filePath   path of the summary file
+     * @param intervalMs milliseconds between updates
+     */
+    public void startReporting(String filePath, long intervalMs) {
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> writeSummary(filePath), intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> writeSummary(filePath)));
+    }
+
+    /**
+     * Stops the periodic reporting.
+     */
+    public void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes the summary to a file, replacing it in one step so readers never see a partial file.
+     *
+     * @param filePath path of the summary file
+     */
+    public synchronized void writeSummary(String filePath) {
+        Path target = Paths.get(filePath);
+        Path temp = Paths.get(filePath + ".tmp");
+        try {
+            Files.write(temp, getSummary().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Publishes these metrics on the platform MBean server.
+     */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("library:type=CommandMetrics"));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public long getCommandCount() {
+        return allLatencies.count();
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return borrows.get();
+    }
+
+    @Override
+    public long getReturnCount() {
+        return returns.get();
+    }
+
+    @Override
+    public long getPaymentCount() {
+        return payments.get();
+    }
+
+    @Override
+    public long getOverduePenaltyCount() {
+        return overduePenalties.get();
+    }
+
+    @Override
+    public long getRejectedLimitReached() {
+        return rejections.get(Rejection.LIMIT_REACHED.ordinal());
+    }
+
+    @Override
+    public long getRejectedNotAvailable() {
+        return rejections.get(Rejection.NOT_AVAILABLE.ordinal());
+    }
+
+    @Override
+    public long getRejectedPenalty() {
+        return rejections.get(Rejection.PENALTY.ordinal());
+    }
+
+    @Override
+    public long getRejectedTypeNotAllowed() {
+        return rejections.get(Rejection.TYPE_NOT_ALLOWED.ordinal());
+    }
+
+    @Override
+    public double getLatencyP50Micros() {
+        return allLatencies.percentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getLatencyP99Micros() {
+        return allLatencies.percentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getLatencyMaxMicros() {
+        return allLatencies.max() / 1000.0;
+    }
+
+    @Override
+    public double getOutputIoMillis() {
+        return output.ioNanos() / 1e6;
+    }
+
+    @Override
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-13s %10s %10s %10s %10s %10s %10s%n",
+                "command", "count", "mean(us)", "p50(us)", "p99(us)", "p99.9(us)", "max(us)"));
+        for (int i = 0; i < COMMANDS.length; i++) {
+            appendLatencies(sb, COMMANDS[i], latencies[i]);
+        }
+        appendLatencies(sb, "all", allLatencies);
+        sb.append(String.format(Locale.ROOT, "%nborrowed: %d, returned: %d, paid: %d, overdue penalties: %d%n",
+                getBorrowCount(), getReturnCount(), getPaymentCount(), getOverduePenaltyCount()));
+        sb.append(String.format(Locale.ROOT,
+                "rejected: limit reached %d, not available %d, penalty %d, type not allowed %d%n",
+                getRejectedLimitReached(), getRejectedNotAvailable(), getRejectedPenalty(),
+                getRejectedTypeNotAllowed()));
+        sb.append(String.format(Locale.ROOT, "output I/O: %.3f ms%n", getOutputIoMillis()));
+        return sb.toString();
+    }
+
+    private static void appendLatencies(StringBuilder sb, String name, LatencyHistogram histogram) {
+        if (histogram.count() == 0) {
+            return;
+        }
+        sb.append(String.format(Locale.ROOT, "%-13s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", name,
+                histogram.count(), histogram.mean() / 1000.0, histogram.percentile(50) / 1000.0,
+                histogram.percentile(99) / 1000.0, histogram.percentile(99.9) / 1000.0, histogram.max() / 1000.0));
+    }
+}
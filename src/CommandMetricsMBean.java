@@ -0,0 +1,47 @@
+/**
+ * Management interface of {@link CommandMetrics}, published over JMX as "library:type=CommandMetrics".
+ */
+public interface CommandMetricsMBean {
+
+    /** Returns the number of processed commands. */
+    long getCommandCount();
+
+    /** Returns the number of successful borrows. */
+    long getBorrowCount();
+
+    /** Returns the number of returned loans. */
+    long getReturnCount();
+
+    /** Returns the number of penalty payments. */
+    long getPaymentCount();
+
+    /** Returns the number of loans removed as overdue. */
+    long getOverduePenaltyCount();
+
+    /** Returns the number of borrows refused because the user reached the borrow limit. */
+    long getRejectedLimitReached();
+
+    /** Returns the number of borrows refused because the item was not available. */
+    long getRejectedNotAvailable();
+
+    /** Returns the number of borrows refused because of an unpaid penalty. */
+    long getRejectedPenalty();
+
+    /** Returns the number of borrows refused because the item type is not allowed for the user. */
+    long getRejectedTypeNotAllowed();
+
+    /** Returns the median command latency in microseconds. */
+    double getLatencyP50Micros();
+
+    /** Returns the 99th percentile command latency in microseconds. */
+    double getLatencyP99Micros();
+
+    /** Returns the largest command latency in microseconds. */
+    double getLatencyMaxMicros();
+
+    /** Returns the time spent writing output to disk, in milliseconds. */
+    double getOutputIoMillis();
+
+    /** Returns the full text summary. */
+    String getSummary();
+}
@@ -1,220 +1,975 @@
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
-import java.util.*;
-
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * This class handles the execution of commands in the library system,
  * such as borrowing and returning items, processing payments, and displaying user/item information.
  */
 public class CommandProcessor {
-    Map<Integer, LibraryItem> items;
-    Map<Integer, User> users;
-    String outputFile;
-    private LocalDate lastProcessedBorrowDate = null;
+    ItemCatalog items;
+    IntRegistry<User> users;
+    OutputSink output;
+    LoanRegistry loans = new LoanRegistry();
+    OverdueScheduler overdue = new OverdueScheduler();
+    HoldQueues holds = new HoldQueues();
+    LibraryClock clock;
+    BorrowPolicy policy;
+    private int lastProcessedBorrowDay = Integer.MIN_VALUE;
+    /**
+     * If true, a borrow dated before the previous borrow stops the program; otherwise only that borrow is refused.
+     */
+    boolean stopOnUnorderedDates = true;
+    /**
+     * If true, stopping ends the program; otherwise the processor is only marked as stopped and the caller
+     * ends the run (see {@link #isStopped()}), e.g. a scenario that must not stop the others.
+     */
+    boolean exitOnStop = true;
+    private volatile boolean stopped = false;
+    /**
+     * If true, the overdue sweep runs once per date instead of on every borrow: at the first borrow on a
+     * new "today", and again only when a loan was added that is already due on the day last swept.
+     */
+    boolean batchByDay = false;
+    private int sweptDay = Integer.MIN_VALUE;
+    private final List<LibraryEventListener> listeners = new ArrayList<>();
+    /**
+     * Held shared by commands that run in parallel, and exclusively by work that needs a consistent
+     * view of the whole state, such as checkpoints.
+     */
+    final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+    final RenderCache renderCache;
+    final PenaltyLedger ledger;
+    final AvailabilityIndex availability;
+    private SearchIndex searchIndex;
+    /**
+     * The registry under the users of a scenario processor, whose users are copied before they change;
+     * null for a processor that owns its users.
+     */
+    private final IntRegistry<User> sharedUsers;
+
+    /**
+     * Constructs a CommandProcessor with item and user registries and the output sink.
+     * Overdue checks use the system date.
+     *
+     * @param items  catalog of library items, sorted by ID
+     * @param users  registry of users by ID, sorted by ID
+     * @param output sink receiving the system responses
+     */
+    public CommandProcessor(ItemCatalog items, IntRegistry<User> users, OutputSink output) {
+        this(items, users, output, LibraryClock.system());
+    }
 
     /**
-     * Constructs a CommandProcessor with item and user maps and the output file path.
+     * Constructs a CommandProcessor with item and user registries, the output sink and the clock used for overdue checks.
      *
-     * @param items      map of library items by ID
-     * @param users      map of users by ID
-     * @param outputFile path of the output file to write system responses
+     * @param items  catalog of library items, sorted by ID
+     * @param users  registry of users by ID, sorted by ID
+     * @param output sink receiving the system responses
+     * @param clock  source of the current date
      */
-    public CommandProcessor(Map<Integer, LibraryItem> items, Map<Integer, User> users, String outputFile) {
+    public CommandProcessor(ItemCatalog items, IntRegistry<User> users, OutputSink output,
+                            LibraryClock clock) {
+        this(items, users, output, clock, BorrowPolicy.defaults());
+    }
+
+    /**
+     * Constructs a CommandProcessor with item and user registries, the output sink, the clock used for
+     * overdue checks and the borrowing rules.
+     *
+     * @param items  catalog of library items, sorted by ID
+     * @param users  registry of users by ID, sorted by ID
+     * @param output sink receiving the system responses
+     * @param clock  source of the current date
+     * @param policy borrowing rules; compiled for the item catalog by this constructor
+     */
+    public CommandProcessor(ItemCatalog items, IntRegistry<User> users, OutputSink output,
+                            LibraryClock clock, BorrowPolicy policy) {
         this.items = items;
         this.users = users;
-        this.outputFile = outputFile;
+        this.output = output;
+        this.clock = clock;
+        this.policy = policy;
+        this.sharedUsers = null;
+        policy.compile(items);
+        this.renderCache = new RenderCache(items, users);
+        listeners.add(renderCache);
+        this.ledger = new PenaltyLedger(users, policy.blockingPenalty());
+        listeners.add(ledger);
+        this.availability = new AvailabilityIndex(items);
+        listeners.add(availability);
+    }
+
+    /**
+     * Constructs a processor for one scenario that starts from the state of another processor, which must not
+     * run any commands itself. The item catalog, the borrowing rules and the search index are shared, and the
+     * users are read through an overlay of the shared registry: a user is copied the first time this processor
+     * changes them, so the other scenarios never see the change. The penalty ledger and the availability index
+     * start as copies of the shared ones; loans, holds and the display cache are this processor's own.
+     *
+     * @param shared the processor holding the loaded state
+     * @param output sink receiving the system responses
+     */
+    CommandProcessor(CommandProcessor shared, OutputSink output) {
+        this.items = shared.items;
+        this.sharedUsers = shared.users;
+        this.users = shared.users.overlay();
+        this.output = output;
+        this.clock = shared.clock;
+        this.policy = shared.policy;
+        this.batchByDay = shared.batchByDay;
+        this.stopOnUnorderedDates = shared.stopOnUnorderedDates;
+        this.exitOnStop = shared.exitOnStop;
+        this.searchIndex = shared.searchIndex();
+        this.renderCache = new RenderCache(items, users);
+        listeners.add(renderCache);
+        this.ledger = new PenaltyLedger(shared.ledger);
+        listeners.add(ledger);
+        this.availability = new AvailabilityIndex(shared.availability);
+        listeners.add(availability);
+    }
+
+    /**
+     * Returns the object of a user that this processor may change: for a scenario processor, the user's own
+     * copy, made on first use; otherwise the user itself.
+     *
+     * @param user the user about to change
+     */
+    private User writable(User user) {
+        if (sharedUsers == null) {
+            return user;
+        }
+        User current = users.get(user.id);
+        if (current != sharedUsers.get(user.id)) {
+            return current;
+        }
+        User copy = current.copy();
+        users.put(copy.id, copy);
+        return copy;
+    }
+
+    /**
+     * Returns true if a command stopped the run, e.g. a borrow with an out-of-order date. No further
+     * commands should be processed; only happens if {@link #exitOnStop} is false.
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Registers a listener that is told about every state change.
+     *
+     * @param listener the listener to add
+     */
+    public void addListener(LibraryEventListener listener) {
+        listeners.add(listener);
     }
 
     /**
      * Determines the type of command and calls the related method to process it.
+     * IDs and dates are parsed directly from the record without creating intermediate Strings.
+     *
+     * @param command a record holding the components of the command
+     */
+    public void processCommand(CsvRecord command) {
+        long start = System.nanoTime();
+        String name = execute(command, output);
+        completeCommand(name, System.nanoTime() - start);
+    }
+
+    /**
+     * Runs a command and writes its responses to the given sink, without notifying listeners
+     * that the command has completed.
      *
-     * @param parts an array representing the components of the command
+     * @param command a record holding the components of the command
+     * @param out     sink receiving the responses of this command
+     * @return the name of the command, or "unknown"
      */
-    public void processCommand(String[] parts) {
-        switch (parts[0]) {
-            case "borrow":
-                processBorrow(parts);
-                break;
-            case "return":
-                processReturn(parts);
-                break;
-            case "pay":
-                processPay(parts);
-                break;
-            case "displayUsers":
-                processDisplayUsers();
-                break;
-            case "displayItems":
-                processDisplayItems();
-                break;
+    String execute(CsvRecord command, OutputSink out) {
+        if (command.fieldEquals(0, "borrow")) {
+            processBorrow(command.intField(1), command.intField(2), command.epochDayField(3), out);
+            return "borrow";
+        } else if (command.fieldEquals(0, "return")) {
+            processReturn(command.intField(1), command.intField(2), out);
+            return "return";
+        } else if (command.fieldEquals(0, "pay")) {
+            processPay(command.intField(1), command.fieldCount() > 2 ? command.intField(2) : -1, out);
+            return "pay";
+        } else if (command.fieldEquals(0, "displayUsers")) {
+            processDisplayUsers(command, out);
+            return "displayUsers";
+        } else if (command.fieldEquals(0, "displayItems")) {
+            processDisplayItems(command, out);
+            return "displayItems";
+        } else if (command.fieldEquals(0, "snapshot")) {
+            processSnapshot(command.field(1), out);
+            return "snapshot";
+        } else if (command.fieldEquals(0, "search")) {
+            processSearch(command, out);
+            return "search";
+        } else if (command.fieldEquals(0, "penalties")) {
+            processPenalties(command, out);
+            return "penalties";
+        } else if (command.fieldEquals(0, "availability")) {
+            processAvailability(command, out);
+            return "availability";
+        } else if (command.fieldEquals(0, "reserve")) {
+            processReserve(command.intField(1), command.intField(2), out);
+            return "reserve";
+        } else if (command.fieldEquals(0, "cancel")) {
+            processCancel(command.intField(1), command.fieldCount() > 2 ? command.intField(2) : -1, out);
+            return "cancel";
         }
+        return "unknown";
     }
 
     /**
-     * Handles the 'borrow' command: checks conditions, applies penalties, and adds item to user.
+     * Tells the listeners that a command has completed and ends the command on the output sink.
      *
-     * @param parts command parts: [borrow, userId, itemId, borrowDate]
+     * @param name         name of the command
+     * @param elapsedNanos time spent processing the command
      */
-    private void processBorrow(String[] parts) {
-        int userId = Integer.parseInt(parts[1]);
-        int itemId = Integer.parseInt(parts[2]);
-        String borrowDate = parts[3];
+    void completeCommand(String name, long elapsedNanos) {
+        for (LibraryEventListener listener : listeners) {
+            listener.commandCompleted(name, elapsedNanos);
+        }
+        output.endCommand();
+    }
+
+    /**
+     * Refuses a borrow whose date is too far behind the previous borrows to be processed in order,
+     * writing the same response as any other out-of-order borrow but without stopping the program.
+     */
+    void rejectLateBorrow() {
+        long start = System.nanoTime();
+        output.writeLine("Borrow dates must be sequential.");
+        completeCommand("borrow", System.nanoTime() - start);
+    }
 
+    private void reject(User user, LibraryItem item, LibraryEventListener.Rejection reason) {
+        for (LibraryEventListener listener : listeners) {
+            listener.borrowRejected(user, item, reason);
+        }
+    }
+
+    /**
+     * Handles the 'borrow' command: checks conditions, applies penalties, and adds item to user.
+     *
+     * @param userId           ID of the borrowing user
+     * @param itemId           ID of the item to borrow
+     * @param currentBorrowDay date of the borrow command as an epoch day
+     * @param out              sink receiving the responses
+     */
+    private void processBorrow(int userId, int itemId, int currentBorrowDay, OutputSink out) {
         User user = users.get(userId);
-        LibraryItem item = items.get(itemId);
+        int itemIndex = items.indexOf(itemId);
+        LibraryItem item = itemIndex < 0 ? null : items.valueAt(itemIndex);
 
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy");
-        LocalDate currentBorrowDate = LocalDate.parse(borrowDate, formatter);
-        LocalDate today = LocalDate.now();
+        int today = clock.today(currentBorrowDay);
 
 
-        if (lastProcessedBorrowDate != null && currentBorrowDate.isBefore(lastProcessedBorrowDate)) {
-            TextFileHandler.writeLine(outputFile, "Borrow dates must be sequential.");
+        if (currentBorrowDay < lastProcessedBorrowDay) {
+            out.writeLine("Borrow dates must be sequential.");
+            if (!stopOnUnorderedDates) {
+                return;
+            }
+            stopped = true;
+            if (!exitOnStop) {
+                return;
+            }
+            out.close();
+            output.close();
             System.exit(1);
         }
-        lastProcessedBorrowDate = currentBorrowDate;
-
+        if (currentBorrowDay > lastProcessedBorrowDay) {
+            lastProcessedBorrowDay = currentBorrowDay;
+            for (LibraryEventListener listener : listeners) {
+                listener.borrowDateAdvanced(currentBorrowDay);
+            }
+        }
 
-        List<User> allUsers = new ArrayList<>(users.values());
 
-        for (User u : allUsers) {
-            List<LibraryItem> overdueItems = new ArrayList<>();
-            for (Map.Entry<LibraryItem, LocalDate> entry : u.borrowedItems.entrySet()) {
-                long daysBetween = ChronoUnit.DAYS.between(entry.getValue(), today) + 1;
-                if (daysBetween > u.getOverdueLimit()) {
-                    overdueItems.add(entry.getKey());
-                    u.penalty += 2;
+        if (!batchByDay || today != sweptDay) {
+            Loan expired;
+            while ((expired = overdue.pollExpired(today, loans)) != null) {
+                expired.user.borrowedItems.remove(expired.item);
+                loans.remove(expired.item.id);
+                expired.user.penalty += policy.overduePenalty();
+                for (LibraryEventListener listener : listeners) {
+                    listener.loanOverdue(expired, policy.overduePenalty());
                 }
+                handOver(expired.item, expired.user, out);
             }
-            for (LibraryItem itemToRemove : overdueItems) {
-                u.borrowedItems.remove(itemToRemove);
-            }
+            sweptDay = today;
         }
 
 
-        if (user.borrowedItems.size() >= user.getMaxItems()) {
-            TextFileHandler.writeLine(outputFile,
-                    user.name + " cannot borrow " + item.title + ", since the borrow limit has been reached!");
+        if (user.borrowedItems.size() >= policy.maxItems(user)) {
+            out.writeLine(user.name + " cannot borrow " + item.title + ", since the borrow limit has been reached!");
+            reject(user, item, LibraryEventListener.Rejection.LIMIT_REACHED);
             return;
         }
 
-        for (User otherUser : users.values()) {
-            if (otherUser.borrowedItems.containsKey(item)) {
-                TextFileHandler.writeLine(outputFile,
-                        user.name + " cannot borrow " + item.title + ", it is not available!");
-                return;
-            }
+        if (loans.isBorrowed(item.id)) {
+            out.writeLine(user.name + " cannot borrow " + item.title + ", it is not available!");
+            reject(user, item, LibraryEventListener.Rejection.NOT_AVAILABLE);
+            return;
         }
 
 
-        if (user.penalty >= 6) {
-            TextFileHandler.writeLine(outputFile,
+        if (user.penalty >= policy.blockingPenalty()) {
+            out.writeLine(
                     user.name + " cannot borrow " + item.title + ", you must first pay the penalty amount! " + user.penalty + "$"
             );
+            reject(user, item, LibraryEventListener.Rejection.PENALTY);
             return;
         }
 
 
-        if (!user.canBorrowItem(item)) {
-            TextFileHandler.writeLine(outputFile,
-                    user.name + " cannot borrow " + item.type + " item!");
+        if (!policy.canBorrow(user, items.typeCodeAt(itemIndex))) {
+            out.writeLine(user.name + " cannot borrow " + item.type + " item!");
+            reject(user, item, LibraryEventListener.Rejection.TYPE_NOT_ALLOWED);
             return;
         }
 
-        user.borrowedItems.put(item, currentBorrowDate);
-        TextFileHandler.writeLine(outputFile,
-                user.name + " successfully borrowed! " + item.title);
+        lend(user, item, currentBorrowDay);
+        // a user who borrows an item directly no longer waits for it
+        holds.cancel(user.id, item.id);
+        out.writeLine(user.name + " successfully borrowed! " + item.title);
 
     }
 
     /**
-     * Handles the 'return' command: removes the item from the user's borrowed list.
+     * Lends an item to a user and tells the listeners.
      *
-     * @param parts command parts: [return, userId, itemId]
+     * @param user      the borrowing user
+     * @param item      the borrowed item
+     * @param borrowDay the epoch day of the loan
      */
-    private void processReturn(String[] parts) {
-        int userId = Integer.parseInt(parts[1]);
-        int itemId = Integer.parseInt(parts[2]);
+    private void lend(User borrower, LibraryItem item, int borrowDay) {
+        User user = writable(borrower);
+        Loan loan = loans.add(user, item, borrowDay, borrowDay + policy.overdueDays(user));
+        user.borrowedItems.put(item, loan);
+        overdue.schedule(loan);
+        if (loan.dueDay <= sweptDay) {
+            // already overdue, e.g. an old command date under the system clock: the next borrow must sweep
+            sweptDay = Integer.MIN_VALUE;
+        }
+        for (LibraryEventListener listener : listeners) {
+            listener.itemBorrowed(loan);
+        }
+    }
 
+    /**
+     * Lends an item that has just come back to the first user waiting for it who may borrow it now,
+     * i.e. who is below their borrow limit and blocking penalty and may borrow its type.
+     * Waiting users who may not borrow it yet keep their place in the queue, and so does the user who
+     * just gave the item up, who is never handed it straight back.
+     *
+     * @param item     the item that became available
+     * @param previous the user who returned the item or lost it as overdue
+     * @param out      sink receiving the responses
+     */
+    private void handOver(LibraryItem item, User previous, OutputSink out) {
+        if (!holds.hasHolds(item.id)) {
+            return;
+        }
+        int typeCode = items.typeCodeAt(items.indexOf(item.id));
+        // a hold keeps the user object of the reserve command, which a scenario may have copied since
+        User waiting = holds.next(item.id, candidate -> {
+            if (candidate.id == previous.id) {
+                return false;
+            }
+            User user = users.get(candidate.id);
+            return user.borrowedItems.size() < policy.maxItems(user)
+                    && user.penalty < policy.blockingPenalty() && policy.canBorrow(user, typeCode);
+        });
+        if (waiting != null) {
+            User next = users.get(waiting.id);
+            lend(next, item, lastProcessedBorrowDay);
+            out.writeLine(next.name + " successfully borrowed! " + item.title + " (reserved)");
+        }
+    }
+
+    /**
+     * Handles the 'return' command: removes the item from the user's borrowed list.
+     *
+     * @param userId ID of the returning user
+     * @param itemId ID of the returned item
+     * @param out    sink receiving the responses
+     */
+    private void processReturn(int userId, int itemId, OutputSink out) {
         User user = users.get(userId);
         LibraryItem item = items.get(itemId);
 
-        user.borrowedItems.remove(item);
-        TextFileHandler.writeLine(outputFile,
-                user.name + " successfully returned " + item.title);
+        if (user.borrowedItems.containsKey(item)) {
+            user = writable(user);
+        }
+        Loan loan = user.borrowedItems.remove(item);
+        if (loan != null) {
+            loans.remove(item.id);
+            for (LibraryEventListener listener : listeners) {
+                listener.itemReturned(loan);
+            }
+        }
+        out.writeLine(user.name + " successfully returned " + item.title);
+        if (loan != null) {
+            handOver(item, user, out);
+        }
+    }
+
+    /**
+     * Handles the 'reserve' command: puts the user in the queue of a borrowed item. The item is lent to
+     * the first user in the queue who may borrow it when it is returned or removed as overdue.
+     *
+     * @param userId ID of the waiting user
+     * @param itemId ID of the reserved item
+     * @param out    sink receiving the responses
+     */
+    private void processReserve(int userId, int itemId, OutputSink out) {
+        User user = users.get(userId);
+        int itemIndex = items.indexOf(itemId);
+        LibraryItem item = items.valueAt(itemIndex);
+
+        Loan loan = loans.get(itemId);
+        if (loan == null) {
+            out.writeLine(user.name + " cannot reserve " + item.title + ", it is available!");
+            return;
+        }
+        if (loan.user == user) {
+            out.writeLine(user.name + " cannot reserve " + item.title + ", it is already borrowed by them!");
+            return;
+        }
+        if (!policy.canBorrow(user, items.typeCodeAt(itemIndex))) {
+            out.writeLine(user.name + " cannot reserve " + item.type + " item!");
+            return;
+        }
+        int position = holds.add(user, itemId);
+        if (position == 0) {
+            out.writeLine(user.name + " has already reserved " + item.title);
+            return;
+        }
+        for (LibraryEventListener listener : listeners) {
+            listener.itemReserved(user, itemId);
+        }
+        out.writeLine(user.name + " reserved " + item.title + ", position " + position + " in the queue");
     }
 
     /**
-     * Handles the 'pay' command: decreases user's penalty by a fixed amount.
+     * Handles the 'cancel' command: removes the user from the queue of an item, or from every queue.
      *
-     * @param parts command parts: [pay, userId]
+     * @param userId ID of the waiting user
+     * @param itemId ID of the reserved item, or -1 to cancel all reservations of the user
+     * @param out    sink receiving the responses
      */
-    private void processPay(String[] parts) {
-        int userId = Integer.parseInt(parts[1]);
+    private void processCancel(int userId, int itemId, OutputSink out) {
         User user = users.get(userId);
+        if (itemId < 0) {
+            int cancelled = holds.cancelAll(userId);
+            if (cancelled > 0) {
+                for (LibraryEventListener listener : listeners) {
+                    listener.reservationCancelled(user, -1);
+                }
+            }
+            out.writeLine(user.name + " cancelled " + cancelled + " reservations");
+            return;
+        }
+        LibraryItem item = items.get(itemId);
+        if (holds.cancel(userId, itemId)) {
+            for (LibraryEventListener listener : listeners) {
+                listener.reservationCancelled(user, itemId);
+            }
+            out.writeLine(user.name + " cancelled the reservation of " + item.title);
+        } else {
+            out.writeLine(user.name + " has no reservation for " + item.title);
+        }
+    }
 
-        user.penalty = 0;
-        TextFileHandler.writeLine(outputFile,
-                user.name + " has paid penalty");
+    /**
+     * Handles the 'pay' command: decreases user's penalty by the paid amount, or clears it.
+     *
+     * @param userId ID of the paying user
+     * @param amount amount paid, or -1 to pay the whole penalty; at most the penalty is taken
+     * @param out    sink receiving the responses
+     */
+    private void processPay(int userId, int amount, OutputSink out) {
+        User user = users.get(userId);
+
+        int paid = amount < 0 ? user.penalty : Math.min(amount, user.penalty);
+        if (paid > 0) {
+            // nothing changes without a penalty, so nothing is journaled or counted either
+            user = writable(user);
+            user.penalty -= paid;
+            for (LibraryEventListener listener : listeners) {
+                listener.penaltyPaid(user, paid);
+            }
+        }
+        out.writeLine(user.name + " has paid penalty");
 
     }
 
     /**
      * Writes all user information to the output file, sorted by user ID.
+     *
+     * @param out sink receiving the responses
+     */
+    private void processDisplayUsers(OutputSink out) {
+        out.writeLine(" ");
+        for (int i = 0; i < users.size(); i++) {
+            out.writeText(renderCache.userBlock(i));
+        }
+    }
+
+    /**
+     * Handles the 'displayUsers' command with optional filters:
+     * "displayUsers[,category=student|academic|guest][,penalty][,loans][,from=ID][,to=ID][,offset=N][,limit=N]".
+     * "penalty" keeps users with a penalty and "loans" users with active loans; "from" and "to" bound the
+     * IDs (both inclusive), and "offset" and "limit" select a page of the matching users, in ID order.
+     * With "loans", the users are found from the active loans when there are fewer loans than users in range.
+     *
+     * @param command the display command
+     * @param out     sink receiving the responses
      */
-    private void processDisplayUsers() {
-        List<Integer> sortedUserIds = new ArrayList<>(users.keySet());
-        Collections.sort(sortedUserIds);
+    private void processDisplayUsers(CsvRecord command, OutputSink out) {
+        if (command.fieldCount() == 1) {
+            processDisplayUsers(out);
+            return;
+        }
+        int category = -1;
+        boolean withPenalty = false;
+        boolean withLoans = false;
+        int from = 0;
+        int to = users.size();
+        int offset = 0;
+        int limit = Integer.MAX_VALUE;
+        for (int i = 1; i < command.fieldCount(); i++) {
+            String option = command.field(i);
+            String value = option.substring(option.indexOf('=') + 1);
+            if (option.startsWith("category=")) {
+                category = BorrowPolicy.category(value);
+                if (category < 0) {
+                    to = from;
+                }
+            } else if (option.equals("penalty")) {
+                withPenalty = true;
+            } else if (option.equals("loans")) {
+                withLoans = true;
+            } else if (option.startsWith("from=")) {
+                from = Math.max(from, users.ceilingIndex(Integer.parseInt(value)));
+            } else if (option.startsWith("to=")) {
+                to = Math.min(to, users.ceilingIndex(Math.min(Integer.parseInt(value), Integer.MAX_VALUE - 1) + 1));
+            } else if (option.startsWith("offset=")) {
+                offset = Integer.parseInt(value);
+            } else if (option.startsWith("limit=")) {
+                limit = Integer.parseInt(value);
+            }
+        }
 
-        TextFileHandler.writeLine(outputFile, " ");
-        for (Integer ids : sortedUserIds) {
-            User user = users.get(ids);
-            TextFileHandler.writeLine(outputFile, " ");
-            TextFileHandler.writeLine(outputFile, "------ User Information for " + user.id + " ------");
-            TextFileHandler.writeLine(outputFile, user.getUserInfo());
-            if (user.penalty > 0) {
-                TextFileHandler.writeLine(outputFile, "Penalty: " + user.penalty + "$");
+        int[] rows = withLoans && from < to && loans.size() < to - from ? borrowerRows(from, to) : null;
+        int count = rows != null ? rows.length : Math.max(0, to - from);
+        out.writeLine(" ");
+        int written = 0;
+        for (int k = 0; k < count && written < limit; k++) {
+            int row = rows != null ? rows[k] : from + k;
+            User user = users.valueAt(row);
+            if (category >= 0 && user.getCategory() != category) {
+                continue;
             }
+            if (withPenalty && user.penalty <= 0) {
+                continue;
+            }
+            if (withLoans && user.borrowedItems.isEmpty()) {
+                continue;
+            }
+            if (offset > 0) {
+                offset--;
+                continue;
+            }
+            out.writeText(renderCache.userBlock(row));
+            written++;
         }
     }
 
+    /**
+     * Returns the positions of the users with active loans in the given range, in ID order.
+     */
+    private int[] borrowerRows(int from, int to) {
+        int[] rows = new int[loans.size()];
+        int count = 0;
+        for (Loan loan : loans.all()) {
+            int row = users.ceilingIndex(loan.user.id);
+            if (row >= from && row < to) {
+                rows[count++] = row;
+            }
+        }
+        Arrays.sort(rows, 0, count);
+        // a user with several loans is listed once
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || rows[unique - 1] != rows[i]) {
+                rows[unique++] = rows[i];
+            }
+        }
+        return Arrays.copyOf(rows, unique);
+    }
+
     /**
      * Writes all item information and their current status to the output file.
+     *
+     * @param out sink receiving the responses
+     */
+    private void processDisplayItems(OutputSink out) {
+        out.writeLine(" ");
+        for (int i = 0; i < items.size(); i++) {
+            out.writeText(renderCache.itemBlock(i, loans));
+        }
+    }
+
+    /**
+     * Handles the 'displayItems' command with optional filters:
+     * "displayItems[,status=available|borrowed][,type=T][,category=C][,from=ID][,to=ID][,offset=N][,limit=N]".
+     * "from" and "to" bound the IDs (both inclusive), and "offset" and "limit" select a page of the matching
+     * items, in ID order. Type and category are compared by their catalog codes. With "status=borrowed",
+     * the items are found from the active loans when there are fewer loans than items in range.
+     *
+     * @param command the display command
+     * @param out     sink receiving the responses
+     */
+    private void processDisplayItems(CsvRecord command, OutputSink out) {
+        if (command.fieldCount() == 1) {
+            processDisplayItems(out);
+            return;
+        }
+        Boolean borrowed = null;
+        int typeCode = -1;
+        int categoryCode = -1;
+        int from = 0;
+        int to = items.size();
+        int offset = 0;
+        int limit = Integer.MAX_VALUE;
+        for (int i = 1; i < command.fieldCount(); i++) {
+            String option = command.field(i);
+            String value = option.substring(option.indexOf('=') + 1);
+            if (option.startsWith("status=")) {
+                borrowed = value.equals("borrowed");
+            } else if (option.startsWith("type=")) {
+                typeCode = items.typeCode(value);
+                if (typeCode < 0) {
+                    to = from;
+                }
+            } else if (option.startsWith("category=")) {
+                categoryCode = items.categoryCode(value);
+                if (categoryCode < 0) {
+                    to = from;
+                }
+            } else if (option.startsWith("from=")) {
+                from = Math.max(from, items.ceilingIndex(Integer.parseInt(value)));
+            } else if (option.startsWith("to=")) {
+                to = Math.min(to, items.ceilingIndex(Math.min(Integer.parseInt(value), Integer.MAX_VALUE - 1) + 1));
+            } else if (option.startsWith("offset=")) {
+                offset = Integer.parseInt(value);
+            } else if (option.startsWith("limit=")) {
+                limit = Integer.parseInt(value);
+            }
+        }
+
+        int[] rows = Boolean.TRUE.equals(borrowed) && from < to && loans.size() < to - from
+                ? borrowedRows(from, to) : null;
+        int count = rows != null ? rows.length : Math.max(0, to - from);
+        out.writeLine(" ");
+        int written = 0;
+        for (int k = 0; k < count && written < limit; k++) {
+            int row = rows != null ? rows[k] : from + k;
+            if (typeCode >= 0 && items.typeCodeAt(row) != typeCode) {
+                continue;
+            }
+            if (categoryCode >= 0 && items.categoryCodeAt(row) != categoryCode) {
+                continue;
+            }
+            if (borrowed != null && borrowed != loans.isBorrowed(items.keyAt(row))) {
+                continue;
+            }
+            if (offset > 0) {
+                offset--;
+                continue;
+            }
+            out.writeText(renderCache.itemBlock(row, loans));
+            written++;
+        }
+    }
+
+    /**
+     * Returns the positions of the borrowed items in the given range, in ID order.
+     */
+    private int[] borrowedRows(int from, int to) {
+        int[] rows = new int[loans.size()];
+        int count = 0;
+        for (Loan loan : loans.all()) {
+            int row = items.indexOf(loan.item.id);
+            if (row >= from && row < to) {
+                rows[count++] = row;
+            }
+        }
+        Arrays.sort(rows, 0, count);
+        return Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * Handles the 'search' command: "search,query[,type=T][,status=available|borrowed][,limit=N]".
+     * Lists the matching items in ID order, at most 10 unless another limit is given.
+     *
+     * @param command the search command
+     * @param out     sink receiving the responses
+     */
+    private void processSearch(CsvRecord command, OutputSink out) {
+        String query = command.field(1);
+        int typeCode = -1;
+        Boolean available = null;
+        int limit = 10;
+        for (int i = 2; i < command.fieldCount(); i++) {
+            String option = command.field(i);
+            if (option.startsWith("type=")) {
+                typeCode = items.typeCode(option.substring(5));
+                if (typeCode < 0) {
+                    typeCode = -2;
+                }
+            } else if (option.startsWith("status=")) {
+                available = option.substring(7).equals("available");
+            } else if (option.startsWith("limit=")) {
+                limit = Integer.parseInt(option.substring(6));
+            }
+        }
+
+        int[] found = typeCode == -2 ? new int[0]
+                : searchIndex().search(query, typeCode, available, items, loans, Math.max(0, limit));
+        if (found.length == 0) {
+            out.writeLine("No items found for \"" + query + "\"");
+            return;
+        }
+        out.writeLine("Search results for \"" + query + "\": " + found.length);
+        for (int index : found) {
+            int id = items.keyAt(index);
+            out.writeLine("ID: " + id + " Name: " + items.titleAt(index)
+                    + " Status: " + (loans.isBorrowed(id) ? "Borrowed" : "Available"));
+        }
+    }
+
+    /**
+     * Handles the 'penalties' command: "penalties[,top=N][,blocked][,user=ID]".
+     * Always writes the unpaid total per user category and the number of users who cannot borrow because
+     * of their penalty; "top" lists the N highest debtors, "blocked" those users, and "user" the charges
+     * and payments of one user.
+     *
+     * @param command the penalties command
+     * @param out     sink receiving the responses
      */
-    private void processDisplayItems() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy");
-        List<Integer> sortedItemIds = new ArrayList<>(items.keySet());
-        Collections.sort(sortedItemIds);
-
-        TextFileHandler.writeLine(outputFile, " ");
-        for (Integer ids : sortedItemIds) {
-            LibraryItem item = items.get(ids);
-
-            String status = "Available";
-            String borrowedUser = null;
-            LocalDate borrowedDate = null;
-
-            for (User user : users.values()) {
-                if (user.borrowedItems.containsKey(item)) {
-                    status = "Borrowed";
-                    borrowedUser = user.name;
-                    borrowedDate = user.borrowedItems.get(item);
-                    break;
+    private void processPenalties(CsvRecord command, OutputSink out) {
+        long total = 0;
+        StringBuilder byCategory = new StringBuilder();
+        for (int category = 0; category < BorrowPolicy.categoryCount(); category++) {
+            long amount = ledger.outstanding(category);
+            total += amount;
+            byCategory.append(category == 0 ? "" : ", ").append(BorrowPolicy.categoryName(category))
+                    .append(": ").append(amount).append('$');
+        }
+        out.writeLine("Outstanding penalties: " + total + "$ (" + byCategory + ")");
+        out.writeLine("Users who must pay before borrowing: " + ledger.blockedCount());
+
+        for (int i = 1; i < command.fieldCount(); i++) {
+            String option = command.field(i);
+            String value = option.substring(option.indexOf('=') + 1);
+            if (option.startsWith("top=")) {
+                out.writeLine("Top debtors:");
+                writeDebtors(ledger.topDebtors(Integer.parseInt(value)), out);
+            } else if (option.equals("blocked")) {
+                out.writeLine("Blocked users:");
+                writeDebtors(ledger.blockedUsers(), out);
+            } else if (option.startsWith("user=")) {
+                User user = users.get(Integer.parseInt(value));
+                if (user == null) {
+                    out.writeLine("No user with ID " + value);
+                    continue;
+                }
+                out.writeLine("Penalty history of " + user.name + ":");
+                for (int[] entry : ledger.history(user.id)) {
+                    String day = entry[1] == Integer.MIN_VALUE ? "-" : LibraryDates.format(entry[1]);
+                    out.writeLine(day + (entry[0] > 0 ? " charged " + entry[0] : " paid " + -entry[0])
+                            + "$ Balance: " + entry[2] + "$");
                 }
             }
+        }
+    }
+
+    private static void writeDebtors(List<User> debtors, OutputSink out) {
+        for (User user : debtors) {
+            out.writeLine("ID: " + user.id + " Name: " + user.name + " Penalty: " + user.penalty + "$");
+        }
+    }
 
-            TextFileHandler.writeLine(outputFile, " ");
-            TextFileHandler.writeLine(outputFile, "------ Item Information for " + item.id + " ------");
-            String line = "ID: " + item.id + " Name: " + item.title + " Status: " + status;
-            if (status.equals("Borrowed")) {
-                line += " Borrowed Date: " + borrowedDate.format(formatter) + " Borrowed by: " + borrowedUser;
+    /**
+     * Handles the 'availability' command: "availability[,kind=book|magazine|dvd][,type=T][,category=C][,list][,limit=N]".
+     * Writes how many of the matching items are on the shelf; "list" also lists up to "limit" (default 10)
+     * of the available ones in ID order.
+     *
+     * @param command the availability command
+     * @param out     sink receiving the responses
+     */
+    private void processAvailability(CsvRecord command, OutputSink out) {
+        int kind = -1;
+        int typeCode = -1;
+        int categoryCode = -1;
+        boolean unknown = false;
+        boolean list = false;
+        int limit = 10;
+        for (int i = 1; i < command.fieldCount(); i++) {
+            String option = command.field(i);
+            String value = option.substring(option.indexOf('=') + 1);
+            if (option.startsWith("kind=")) {
+                kind = AvailabilityIndex.kindCode(value);
+                unknown |= kind < 0;
+            } else if (option.startsWith("type=")) {
+                typeCode = items.typeCode(value);
+                unknown |= typeCode < 0;
+            } else if (option.startsWith("category=")) {
+                categoryCode = items.categoryCode(value);
+                unknown |= categoryCode < 0;
+            } else if (option.equals("list")) {
+                list = true;
+            } else if (option.startsWith("limit=")) {
+                limit = Integer.parseInt(value);
             }
-            TextFileHandler.writeLine(outputFile, line);
-            TextFileHandler.writeLine(outputFile, item.getItemInfo());
+        }
+        if (unknown) {
+            out.writeLine("Available: 0 of 0 items");
+            return;
+        }
+        out.writeLine("Available: " + availability.count(kind, typeCode, categoryCode, true)
+                + " of " + availability.count(kind, typeCode, categoryCode, false) + " items");
+        if (list) {
+            for (int row : availability.find(kind, typeCode, categoryCode, true, Math.max(0, limit))) {
+                out.writeLine("ID: " + items.keyAt(row) + " Name: " + items.titleAt(row));
+            }
+        }
+    }
+
+    /**
+     * Returns the search index of the item catalog, building it on first use.
+     */
+    synchronized SearchIndex searchIndex() {
+        if (searchIndex == null) {
+            searchIndex = SearchIndex.build(items);
+        }
+        return searchIndex;
+    }
+
+    /**
+     * Handles the 'snapshot' command: saves the current state to a binary snapshot file.
+     *
+     * @param filePath path of the snapshot file
+     * @param out      sink receiving the responses
+     */
+    private void processSnapshot(String filePath, OutputSink out) {
+        try {
+            SnapshotStore.save(filePath, this);
+            out.writeLine("Snapshot saved to " + filePath);
+        } catch (IOException e) {
+            out.writeLine("Snapshot could not be saved to " + filePath);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Restores an active loan without writing any output, e.g. when loading a snapshot.
+     *
+     * @param userId    ID of the borrowing user
+     * @param itemId    ID of the borrowed item
+     * @param borrowDay the epoch day the item was borrowed
+     */
+    void restoreLoan(int userId, int itemId, int borrowDay) {
+        User user = writable(users.get(userId));
+        Loan loan = loans.add(user, items.get(itemId), borrowDay, borrowDay + policy.overdueDays(user));
+        user.borrowedItems.put(loan.item, loan);
+        // a loan ends the borrower's own wait for the item, whether it was handed over or borrowed directly
+        holds.cancel(userId, itemId);
+        overdue.schedule(loan);
+        sweptDay = Integer.MIN_VALUE;
+        availability.borrowed(itemId);
+        renderCache.itemChanged(loan.item);
+    }
+
+    /**
+     * Ends an active loan without writing any output, e.g. when replaying the journal.
+     *
+     * @param itemId  ID of the borrowed item
+     * @param penalty amount added to the borrower's penalty
+     */
+    void restoreLoanEnd(int itemId, int penalty) {
+        Loan loan = loans.remove(itemId);
+        if (loan != null) {
+            loan.user.borrowedItems.remove(loan.item);
+            loan.user.penalty += penalty;
+            ledger.charge(loan.user, penalty);
+            availability.returned(itemId);
+            renderCache.itemChanged(loan.item);
+            renderCache.userChanged(loan.user);
         }
     }
 
+    /**
+     * Decreases a user's penalty without writing any output, e.g. when replaying the journal.
+     *
+     * @param userId ID of the user
+     * @param amount the amount that was paid
+     */
+    void restorePayment(int userId, int amount) {
+        User user = writable(users.get(userId));
+        user.penalty -= amount;
+        ledger.payment(user, amount);
+        renderCache.userChanged(user);
+    }
 
-}
\ No newline at end of file
+    /**
+     * Adds a user to the end of the queue of an item without writing any output, e.g. when loading a snapshot.
+     *
+     * @param userId ID of the waiting user
+     * @param itemId ID of the reserved item
+     */
+    void restoreHold(int userId, int itemId) {
+        holds.add(users.get(userId), itemId);
+    }
+
+    /**
+     * Removes a user from the queue of an item, or from every queue, without writing any output,
+     * e.g. when replaying the journal.
+     *
+     * @param userId ID of the waiting user
+     * @param itemId ID of the reserved item, or -1 for every queue
+     */
+    void restoreCancel(int userId, int itemId) {
+        if (itemId < 0) {
+            holds.cancelAll(userId);
+        } else {
+            holds.cancel(userId, itemId);
+        }
+    }
+
+    /**
+     * Returns the date of the last processed borrow command as an epoch day.
+     */
+    int getLastProcessedBorrowDay() {
+        return lastProcessedBorrowDay;
+    }
+
+    /**
+     * Sets the date of the last processed borrow command, e.g. when loading a snapshot.
+     *
+     * @param day the epoch day of the last borrow command
+     */
+    void setLastProcessedBorrowDay(int day) {
+        lastProcessedBorrowDay = day;
+        ledger.borrowDateAdvanced(day);
+    }
+}
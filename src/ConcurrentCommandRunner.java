@@ -0,0 +1,219 @@
+import java.io.Closeable;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs commands on a pool of worker threads while producing exactly the output of running them one by one.
+ * <p>
+ * Users and items are mapped to lock stripes. A borrow, return or pay command only runs after the earlier
+ * commands on the same user stripe and item stripe have finished, so the limit, availability and penalty
+ * checks of one user or item always see the effects of the commands before them, while commands on
+ * different stripes run at the same time.
+ * <p>
+ * Commands that read or change state beyond one user and one item run alone, after every earlier command
+ * has finished: displays, snapshots, reservations, borrows that move the borrow date, borrows that may find
+ * overdue loans and hand them over to waiting users, and borrows and returns of items someone is waiting for.
+ * To recognize overdue loans the runner keeps the earliest day on which any loan could become overdue.
+ * Loans due on the same day expire in item ID order (see {@link OverdueScheduler}), so the users they are
+ * handed over to do not depend on the order in which parallel borrows scheduled them.
+ * <p>
+ * Every command writes its responses to its own buffer; buffers are copied to the output sink in input order.
+ */
+public class ConcurrentCommandRunner implements Closeable {
+    private final CommandProcessor processor;
+    private final ExecutorService workers;
+    private final int stripeMask;
+    private final CompletableFuture<?>[] userStripes;
+    private final CompletableFuture<?>[] itemStripes;
+    private final ArrayDeque<PendingCommand> pending = new ArrayDeque<>();
+    private final int maxInFlight;
+    private int lastBorrowDay;
+    private int sweepHorizon;
+
+    /**
+     * Creates a runner for the given processor.
+     *
+     * @param processor   the processor executing the commands
+     * @param threads     number of worker threads
+     * @param stripes     number of lock stripes for users and for items, rounded up to a power of two
+     * @param maxInFlight number of commands that may wait for their output to be written
+     */
+    public ConcurrentCommandRunner(CommandProcessor processor, int threads, int stripes, int maxInFlight) {
+        this.processor = processor;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "command-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        int stripeCount = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripeMask = stripeCount - 1;
+        this.userStripes = new CompletableFuture<?>[stripeCount];
+        this.itemStripes = new CompletableFuture<?>[stripeCount];
+        CompletableFuture<Void> done = CompletableFuture.completedFuture(null);
+        for (int i = 0; i < stripeCount; i++) {
+            userStripes[i] = done;
+            itemStripes[i] = done;
+        }
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.lastBorrowDay = processor.getLastProcessedBorrowDay();
+        this.sweepHorizon = processor.overdue.nextDueDay();
+    }
+
+    /**
+     * Schedules a command. Its responses are written once every earlier command has been written.
+     *
+     * @param command a record holding the components of the command; it may be reused after this call
+     */
+    public void submit(CsvRecord command) {
+        if (command.fieldEquals(0, "borrow")) {
+            int userId = command.intField(1);
+            int itemId = command.intField(2);
+            int day = command.epochDayField(3);
+            User user = processor.users.get(userId);
+            // a borrow that may find overdue loans may also hand them to waiting users, and a borrow of an
+            // item someone is waiting for changes its queue; both touch state beyond one user and one item
+            if (day != lastBorrowDay || user == null || !processor.items.containsKey(itemId)
+                    || processor.clock.today(day) >= sweepHorizon || processor.holds.hasHolds(itemId)) {
+                runAlone(command);
+                return;
+            }
+            // the new loan is the earliest that could become overdue, if it is earlier than the current horizon
+            sweepHorizon = Math.min(sweepHorizon, day + processor.policy.overdueDays(user));
+            runParallel(command, userId, itemId);
+        } else if (command.fieldEquals(0, "return")) {
+            int userId = command.intField(1);
+            int itemId = command.intField(2);
+            // handing the item to a waiting user changes another user's state
+            if (!processor.users.containsKey(userId) || !processor.items.containsKey(itemId)
+                    || processor.holds.hasHolds(itemId)) {
+                runAlone(command);
+                return;
+            }
+            runParallel(command, userId, itemId);
+        } else if (command.fieldEquals(0, "pay")) {
+            int userId = command.intField(1);
+            if (!processor.users.containsKey(userId)) {
+                runAlone(command);
+                return;
+            }
+            runParallel(command, userId, -1);
+        } else {
+            runAlone(command);
+        }
+    }
+
+    private int stripe(int id) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & stripeMask;
+    }
+
+    /**
+     * Runs a command on a worker after the earlier commands on its user and item stripes.
+     *
+     * @param command the command
+     * @param userId  ID of the user involved
+     * @param itemId  ID of the item involved, or -1 if the command involves no item
+     */
+    private void runParallel(CsvRecord command, int userId, int itemId) {
+        PendingCommand task = new PendingCommand(command.copy());
+        int userStripe = stripe(userId);
+        CompletableFuture<?> previous = userStripes[userStripe];
+        if (itemId < 0) {
+            task.done = previous.thenRunAsync(task, workers);
+        } else {
+            int itemStripe = stripe(itemId);
+            task.done = CompletableFuture.allOf(previous, itemStripes[itemStripe]).thenRunAsync(task, workers);
+            itemStripes[itemStripe] = task.done;
+        }
+        userStripes[userStripe] = task.done;
+        pending.add(task);
+
+        while (!pending.isEmpty() && (pending.size() >= maxInFlight || pending.peek().done.isDone())) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Runs a command on the calling thread once every earlier command has finished.
+     *
+     * @param command the command
+     */
+    private void runAlone(CsvRecord command) {
+        finish();
+        processor.processCommand(command);
+        lastBorrowDay = processor.getLastProcessedBorrowDay();
+        sweepHorizon = processor.overdue.nextDueDay();
+    }
+
+    /**
+     * Waits for the oldest scheduled command and writes its responses.
+     */
+    private void writeNext() {
+        PendingCommand task = pending.poll();
+        try {
+            task.done.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        processor.output.writeText(task.text);
+        processor.completeCommand(task.name, task.elapsedNanos);
+    }
+
+    /**
+     * Waits for all scheduled commands and writes their responses.
+     */
+    public void finish() {
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Stops the worker threads. Commands that have not been written by {@link #finish()} are dropped.
+     */
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * A command running on a worker, together with the responses it produced.
+     */
+    private class PendingCommand implements Runnable {
+        private final CsvRecord command;
+        CompletableFuture<?> done;
+        String name;
+        String text;
+        long elapsedNanos;
+
+        PendingCommand(CsvRecord command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            StringWriter responses = new StringWriter();
+            OutputSink buffer = new OutputSink(responses, 256, OutputSink.FlushPolicy.ON_EXIT, 1);
+            processor.stateLock.readLock().lock();
+            try {
+                long start = System.nanoTime();
+                name = processor.execute(command, buffer);
+                elapsedNanos = System.nanoTime() - start;
+            } finally {
+                processor.stateLock.readLock().unlock();
+            }
+            buffer.close();
+            text = responses.toString();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+
+
+/**
+ * Reusable view of one comma-separated line.
+ * Fields are kept as offsets into a character buffer, so numbers and dates can be parsed
+ * directly from the characters; a String is only created when a field value is actually kept.
+ * Fields may be enclosed in double quotes to contain commas, and a doubled quote inside a
+ * quoted field stands for a single quote character.
+ */
+public class CsvRecord {
+    private char[] chars = new char[256];
+    private int length = 0;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] escaped = new boolean[16];
+    private int fieldCount = 0;
+
+    /**
+     * Replaces the content of this record with the given line and splits it into fields.
+     *
+     * @param source buffer containing the line
+     * @param offset index of the first character of the line
+     * @param count  number of characters in the line, without the line terminator
+     */
+    public void set(char[] source, int offset, int count) {
+        if (chars.length < count) {
+            chars = new char[Math.max(count, chars.length * 2)];
+        }
+        System.arraycopy(source, offset, chars, 0, count);
+        length = count;
+        split();
+    }
+
+    /**
+     * Replaces the content of this record with the given line and splits it into fields.
+     *
+     * @param line the line to split
+     */
+    public void set(String line) {
+        if (chars.length < line.length()) {
+            chars = new char[Math.max(line.length(), chars.length * 2)];
+        }
+        line.getChars(0, line.length(), chars, 0);
+        length = line.length();
+        split();
+    }
+
+    /**
+     * Returns an independent copy of this record, e.g. to keep a command after the reader has moved on.
+     */
+    public CsvRecord copy() {
+        CsvRecord copy = new CsvRecord();
+        copy.set(chars, 0, length);
+        return copy;
+    }
+
+    /**
+     * Finds the start and end of every field in the current line.
+     */
+    private void split() {
+        fieldCount = 0;
+        int i = 0;
+        while (true) {
+            if (fieldCount == starts.length) {
+                grow();
+            }
+            boolean hasEscapes = false;
+            int start;
+            int end;
+            if (i < length && chars[i] == '"') {
+                start = i + 1;
+                i = start;
+                while (i < length) {
+                    if (chars[i] == '"') {
+                        if (i + 1 < length && chars[i + 1] == '"') {
+                            hasEscapes = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                end = i;
+                while (i < length && chars[i] != ',') {
+                    i++;
+                }
+            } else {
+                start = i;
+                while (i < length && chars[i] != ',') {
+                    i++;
+                }
+                end = i;
+            }
+            starts[fieldCount] = start;
+            ends[fieldCount] = end;
+            escaped[fieldCount] = hasEscapes;
+            fieldCount++;
+            if (i >= length) {
+                break;
+            }
+            i++;
+        }
+    }
+
+    private void grow() {
+        int size = starts.length * 2;
+        starts = Arrays.copyOf(starts, size);
+        ends = Arrays.copyOf(ends, size);
+        escaped = Arrays.copyOf(escaped, size);
+    }
+
+    /**
+     * Returns the number of fields in the current line.
+     */
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Returns true if the current line has no characters.
+     */
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Returns the value of a field as a new String.
+     *
+     * @param index index of the field
+     * @return the field value, with quotes removed
+     */
+    public String field(int index) {
+        checkIndex(index);
+        int start = starts[index];
+        int end = ends[index];
+        if (!escaped[index]) {
+            return new String(chars, start, end - start);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            sb.append(chars[i]);
+            if (chars[i] == '"') {
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compares a field with the given text without creating a String.
+     *
+     * @param index index of the field
+     * @param text  the text to compare with
+     * @return true if the field exists and is equal to the text
+     */
+    public boolean fieldEquals(int index, String text) {
+        if (index >= fieldCount) {
+            return false;
+        }
+        if (escaped[index]) {
+            return field(index).equals(text);
+        }
+        int start = starts[index];
+        int fieldLength = ends[index] - start;
+        if (fieldLength != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < fieldLength; i++) {
+            if (chars[start + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a field as a decimal integer directly from the characters.
+     *
+     * @param index index of the field
+     * @return the integer value
+     * @throws NumberFormatException if the field is not a valid integer
+     */
+    public int intField(int index) {
+        checkIndex(index);
+        return parseInt(starts[index], ends[index], index);
+    }
+
+    /**
+     * Parses a field written as dd/MM/yyyy directly from the characters.
+     *
+     * @param index index of the field
+     * @return the date as an epoch day
+     * @throws java.time.DateTimeException if the field is not a valid date
+     */
+    public int epochDayField(int index) {
+        checkIndex(index);
+        int start = starts[index];
+        int end = ends[index];
+        if (end - start != 10 || chars[start + 2] != '/' || chars[start + 5] != '/') {
+            throw new DateTimeParseException(
+                    "Invalid date", new String(chars, start, end - start), 0);
+        }
+        int day = parseInt(start, start + 2, index);
+        int month = parseInt(start + 3, start + 5, index);
+        int year = parseInt(start + 6, end, index);
+        return LibraryDates.toEpochDay(year, month, day);
+    }
+
+    private int parseInt(int start, int end, int index) {
+        boolean negative = start < end && chars[start] == '-';
+        int i = negative ? start + 1 : start;
+        if (i >= end) {
+            throw new NumberFormatException("For input string: \"" + field(index) + "\"");
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + field(index) + "\"");
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException("For input string: \"" + field(index) + "\"");
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \"" + field(index) + "\"");
+        }
+        return (int) value;
+    }
+
+    private void checkIndex(int index) {
+        if (index >= fieldCount) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+
+    /**
+     * Returns the whole line as a String.
+     */
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,205 @@
+import java.util.function.Predicate;
+
+
+/**
+ * Reservations of borrowed items: a first-in first-out queue of waiting users per item.
+ * <p>
+ * Every queue is a doubly linked list of holds, and every user has an index of their holds by item ID,
+ * so a reservation is added, cancelled or handed over in constant time and all holds of a user are found
+ * without looking at other queues. The methods are synchronized, like those of the {@link LoanRegistry}.
+ */
+public class HoldQueues {
+    private final IntRegistry<Queue> queuesByItem = new IntRegistry<>(false);
+    private final IntRegistry<IntRegistry<Hold>> holdsByUser = new IntRegistry<>(false);
+
+    /**
+     * Adds a user to the end of the queue of an item.
+     *
+     * @param user   the waiting user
+     * @param itemId ID of the reserved item
+     * @return the position of the user in the queue, starting at 1, or 0 if the user was already waiting
+     */
+    public synchronized int add(User user, int itemId) {
+        IntRegistry<Hold> userHolds = holdsByUser.get(user.id);
+        if (userHolds == null) {
+            userHolds = new IntRegistry<>(false, 4);
+            holdsByUser.put(user.id, userHolds);
+        } else if (userHolds.containsKey(itemId)) {
+            return 0;
+        }
+        Queue queue = queuesByItem.get(itemId);
+        if (queue == null) {
+            queue = new Queue();
+            queuesByItem.put(itemId, queue);
+        }
+        Hold hold = new Hold(user, itemId);
+        queue.append(hold);
+        userHolds.put(itemId, hold);
+        return queue.size;
+    }
+
+    /**
+     * Removes a user from the queue of an item.
+     *
+     * @param userId ID of the waiting user
+     * @param itemId ID of the reserved item
+     * @return true if the user was waiting for the item
+     */
+    public synchronized boolean cancel(int userId, int itemId) {
+        IntRegistry<Hold> userHolds = holdsByUser.get(userId);
+        Hold hold = userHolds == null ? null : userHolds.get(itemId);
+        if (hold == null) {
+            return false;
+        }
+        remove(hold);
+        return true;
+    }
+
+    /**
+     * Removes a user from every queue.
+     *
+     * @param userId ID of the waiting user
+     * @return the number of cancelled reservations
+     */
+    public synchronized int cancelAll(int userId) {
+        IntRegistry<Hold> userHolds = holdsByUser.remove(userId);
+        if (userHolds == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Hold hold : userHolds) {
+            unlink(hold);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Removes and returns the first user in the queue of an item who passes the given check.
+     * Users before them who fail the check keep their place.
+     *
+     * @param itemId   ID of the item that became available
+     * @param eligible decides whether a waiting user may take the item now
+     * @return the user, or null if nobody in the queue may take the item
+     */
+    public synchronized User next(int itemId, Predicate<User> eligible) {
+        Queue queue = queuesByItem.get(itemId);
+        if (queue == null) {
+            return null;
+        }
+        for (Hold hold = queue.head; hold != null; hold = hold.next) {
+            if (eligible.test(hold.user)) {
+                remove(hold);
+                return hold.user;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if anyone is waiting for the item.
+     *
+     * @param itemId ID of the item
+     */
+    public synchronized boolean hasHolds(int itemId) {
+        return queuesByItem.containsKey(itemId);
+    }
+
+    /**
+     * Returns the number of users waiting for the item.
+     *
+     * @param itemId ID of the item
+     */
+    public synchronized int waiting(int itemId) {
+        Queue queue = queuesByItem.get(itemId);
+        return queue == null ? 0 : queue.size;
+    }
+
+    /**
+     * Returns all holds, queue by queue and oldest first within each queue, e.g. to save them in a snapshot.
+     * Adding them again in this order restores every queue.
+     *
+     * @return the holds as consecutive (item ID, user ID) pairs
+     */
+    public synchronized int[] toArray() {
+        int count = 0;
+        for (Queue queue : queuesByItem) {
+            count += queue.size;
+        }
+        int[] pairs = new int[count * 2];
+        int next = 0;
+        for (Queue queue : queuesByItem) {
+            for (Hold hold = queue.head; hold != null; hold = hold.next) {
+                pairs[next++] = hold.itemId;
+                pairs[next++] = hold.user.id;
+            }
+        }
+        return pairs;
+    }
+
+    private void remove(Hold hold) {
+        IntRegistry<Hold> userHolds = holdsByUser.get(hold.user.id);
+        userHolds.remove(hold.itemId);
+        if (userHolds.size() == 0) {
+            holdsByUser.remove(hold.user.id);
+        }
+        unlink(hold);
+    }
+
+    private void unlink(Hold hold) {
+        Queue queue = queuesByItem.get(hold.itemId);
+        queue.unlink(hold);
+        if (queue.size == 0) {
+            queuesByItem.remove(hold.itemId);
+        }
+    }
+
+    /**
+     * A user waiting for an item, linked to the holds before and after it in the item's queue.
+     */
+    private static class Hold {
+        final User user;
+        final int itemId;
+        Hold previous;
+        Hold next;
+
+        Hold(User user, int itemId) {
+            this.user = user;
+            this.itemId = itemId;
+        }
+    }
+
+    /**
+     * The holds of one item, oldest first.
+     */
+    private static class Queue {
+        Hold head;
+        Hold tail;
+        int size;
+
+        void append(Hold hold) {
+            hold.previous = tail;
+            if (tail == null) {
+                head = hold;
+            } else {
+                tail.next = hold;
+            }
+            tail = hold;
+            size++;
+        }
+
+        void unlink(Hold hold) {
+            if (hold.previous == null) {
+                head = hold.next;
+            } else {
+                hold.previous.next = hold.next;
+            }
+            if (hold.next == null) {
+                tail = hold.previous;
+            } else {
+                hold.next.previous = hold.previous;
+            }
+            size--;
+        }
+    }
+}
@@ -0,0 +1,484 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Map from int IDs to objects, used for the item and user registries.
+ * Lookups use an open-addressing hash table on primitive keys, so IDs are never boxed.
+ * When created as a sorted registry it also keeps the entries in ID order, so listings
+ * can walk them directly instead of copying and sorting the key set on every call.
+ * Entries added in increasing ID order are appended to that order directly; an entry added out of
+ * order only marks it as stale, and it is rebuilt with one sort at the next ordered access,
+ * so loading IDs in any order stays O(n log n).
+ *
+ * @param <V> type of the stored values
+ */
+public class IntRegistry<V> implements Iterable<V> {
+    private static final int EMPTY = 0;
+    private static final int FULL = 1;
+
+    private final boolean sorted;
+    private int[] keys;
+    private Object[] values;
+    private byte[] states;
+    private int size = 0;
+    private int mask;
+
+    private int[] sortedKeys;
+    private Object[] sortedValues;
+    private boolean orderStale = false;
+    /** Values replaced through an overlay, by ID; null if this registry is not an overlay. */
+    private IntRegistry<Object> overrides;
+
+    /**
+     * Creates an empty registry.
+     *
+     * @param sorted if true, entries are also kept in ID order for iteration
+     */
+    public IntRegistry(boolean sorted) {
+        this(sorted, 16);
+    }
+
+    /**
+     * Creates an empty registry sized for the expected number of entries.
+     *
+     * @param sorted           if true, entries are also kept in ID order for iteration
+     * @param expectedCapacity expected number of entries
+     */
+    public IntRegistry(boolean sorted, int expectedCapacity) {
+        this.sorted = sorted;
+        int capacity = Integer.highestOneBit(Math.max(4, expectedCapacity * 2 - 1)) << 1;
+        allocate(capacity);
+        if (sorted) {
+            sortedKeys = new int[Math.max(4, expectedCapacity)];
+            sortedValues = new Object[sortedKeys.length];
+        }
+    }
+
+    /**
+     * Creates an overlay of another registry. The overlay reads the base registry's tables and keeps values
+     * replaced through it in a small table of its own; the base registry must not change afterwards.
+     *
+     * @param base the registry to read through
+     */
+    private IntRegistry(IntRegistry<V> base) {
+        if (base.overrides != null) {
+            throw new IllegalStateException("cannot overlay an overlay");
+        }
+        base.ensureOrder();
+        sorted = base.sorted;
+        keys = base.keys;
+        values = base.values;
+        states = base.states;
+        mask = base.mask;
+        size = base.size;
+        sortedKeys = base.sortedKeys;
+        sortedValues = base.sortedValues;
+        overrides = new IntRegistry<>(false);
+    }
+
+    /**
+     * Returns a copy-on-write overlay of this registry, e.g. to let one scenario change some users without
+     * copying the others. Nothing is copied up front: replacing the value of an existing ID only records it
+     * in the overlay, and only adding or removing an ID copies the tables. This registry must not change
+     * while the overlay is in use.
+     *
+     * @return the overlay
+     */
+    public IntRegistry<V> overlay() {
+        return new IntRegistry<>(this);
+    }
+
+    /**
+     * Turns an overlay into a registry with tables of its own, before an ID is added or removed.
+     */
+    private void detach() {
+        IntRegistry<Object> replaced = overrides;
+        overrides = null;
+        keys = keys.clone();
+        values = values.clone();
+        states = states.clone();
+        if (sorted) {
+            sortedKeys = sortedKeys.clone();
+            sortedValues = sortedValues.clone();
+        }
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == FULL && replaced.containsKey(keys[i])) {
+                values[i] = replaced.get(keys[i]);
+            }
+        }
+        if (sorted) {
+            for (int i = 0; i < size; i++) {
+                if (replaced.containsKey(sortedKeys[i])) {
+                    sortedValues[i] = replaced.get(sortedKeys[i]);
+                }
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        states = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private int find(int key) {
+        int i = slot(key, mask);
+        while (states[i] == FULL) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the value stored for the given ID.
+     *
+     * @param key the ID
+     * @return the value, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int i = find(key);
+        return i < 0 ? null : (V) current(key, values[i]);
+    }
+
+    /**
+     * Returns the value replaced through the overlay for the given ID, or the stored value.
+     */
+    private Object current(int key, Object stored) {
+        if (overrides == null) {
+            return stored;
+        }
+        Object replaced = overrides.get(key);
+        return replaced != null ? replaced : stored;
+    }
+
+    /**
+     * Returns true if a value is stored for the given ID.
+     *
+     * @param key the ID
+     */
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Stores a value for the given ID, replacing any previous value.
+     *
+     * @param key   the ID
+     * @param value the value to store
+     * @return the previous value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        int i = find(key);
+        if (overrides != null) {
+            if (i >= 0 && value != null) {
+                // replacing a value is recorded in the overlay; the shared tables stay as they are
+                V previous = (V) current(key, values[i]);
+                overrides.put(key, value);
+                return previous;
+            }
+            detach();
+        }
+        if (i >= 0) {
+            V previous = (V) values[i];
+            values[i] = value;
+            if (sorted && !orderStale) {
+                sortedValues[Arrays.binarySearch(sortedKeys, 0, size, key)] = value;
+            }
+            return previous;
+        }
+        if ((size + 1) * 4 > keys.length * 3) {
+            rehash(keys.length * 2);
+        }
+        insert(key, value);
+        if (sorted && !orderStale) {
+            appendSorted(key, value);
+        }
+        size++;
+        return null;
+    }
+
+    private void insert(int key, Object value) {
+        int i = slot(key, mask);
+        while (states[i] == FULL) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        states[i] = FULL;
+    }
+
+    private void appendSorted(int key, Object value) {
+        if (size > 0 && sortedKeys[size - 1] > key) {
+            orderStale = true;
+            return;
+        }
+        if (size == sortedKeys.length) {
+            int capacity = sortedKeys.length * 2;
+            sortedKeys = Arrays.copyOf(sortedKeys, capacity);
+            sortedValues = Arrays.copyOf(sortedValues, capacity);
+        }
+        sortedKeys[size] = key;
+        sortedValues[size] = value;
+    }
+
+    /**
+     * Rebuilds the ID order from the hash table if entries were added out of order since the last ordered access.
+     */
+    private void ensureOrder() {
+        if (orderStale) {
+            rebuildOrder();
+        }
+    }
+
+    private synchronized void rebuildOrder() {
+        if (!orderStale) {
+            return;
+        }
+        // sort the slots by ID; the slot number fits in the low half
+        long[] order = new long[size];
+        int count = 0;
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == FULL) {
+                order[count++] = ((long) keys[i] << 32) | i;
+            }
+        }
+        Arrays.sort(order);
+        sortedKeys = new int[Math.max(4, size)];
+        sortedValues = new Object[sortedKeys.length];
+        for (int i = 0; i < size; i++) {
+            int slot = (int) order[i];
+            sortedKeys[i] = keys[slot];
+            sortedValues[i] = values[slot];
+        }
+        orderStale = false;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        byte[] oldStates = states;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldStates[i] == FULL) {
+                insert(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Removes the value stored for the given ID.
+     *
+     * @param key the ID
+     * @return the removed value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int i = find(key);
+        if (i < 0) {
+            return null;
+        }
+        if (overrides != null) {
+            detach();
+        }
+        V removed = (V) values[i];
+        // shift the following entries of the probe chain back so that lookups keep working
+        int hole = i;
+        int j = (i + 1) & mask;
+        while (states[j] == FULL) {
+            int home = slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+            j = (j + 1) & mask;
+        }
+        states[hole] = EMPTY;
+        values[hole] = null;
+        size--;
+        if (sorted && !orderStale) {
+            int index = Arrays.binarySearch(sortedKeys, 0, size + 1, key);
+            System.arraycopy(sortedKeys, index + 1, sortedKeys, index, size - index);
+            System.arraycopy(sortedValues, index + 1, sortedValues, index, size - index);
+            sortedValues[size] = null;
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the number of stored values.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if this registry keeps its entries in ID order.
+     */
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Returns the position of the first entry whose ID is greater than or equal to the given ID.
+     * Only available on sorted registries.
+     *
+     * @param key the ID to search for
+     * @return a position between 0 and {@link #size()}
+     */
+    public int ceilingIndex(int key) {
+        requireSorted();
+        int index = Arrays.binarySearch(sortedKeys, 0, size, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Returns the ID at the given position in ID order. Only available on sorted registries.
+     *
+     * @param index position of the entry
+     */
+    public int keyAt(int index) {
+        requireSorted();
+        return sortedKeys[index];
+    }
+
+    /**
+     * Returns the value at the given position in ID order. Only available on sorted registries.
+     *
+     * @param index position of the entry
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int index) {
+        requireSorted();
+        return (V) current(sortedKeys[index], sortedValues[index]);
+    }
+
+    private void requireSorted() {
+        if (!sorted) {
+            throw new UnsupportedOperationException("registry is not sorted");
+        }
+        ensureOrder();
+    }
+
+    /**
+     * Iterates over the stored values; in ID order for sorted registries.
+     * The registry must not be modified during iteration.
+     */
+    @Override
+    public Iterator<V> iterator() {
+        if (sorted) {
+            ensureOrder();
+        }
+        return new Iterator<V>() {
+            private int next = sorted ? 0 : advance(0);
+
+            private int advance(int from) {
+                while (from < states.length && states[from] != FULL) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return sorted ? next < size : next < states.length;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public V next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (sorted) {
+                    int index = next++;
+                    return (V) current(sortedKeys[index], sortedValues[index]);
+                }
+                V value = (V) current(keys[next], values[next]);
+                next = advance(next + 1);
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Collects entries in any order and builds a sorted registry with one sort.
+     * When an ID is added more than once, the last value is kept.
+     *
+     * @param <V> type of the stored values
+     */
+    static class Builder<V> {
+        private int size = 0;
+        private int[] ids = new int[64];
+        private int[] lines = new int[64];
+        private Object[] values = new Object[64];
+
+        /**
+         * Adds a value read from the given line of a file.
+         *
+         * @param id    the ID
+         * @param value the value
+         * @param line  line number, used to report repeated IDs
+         */
+        void add(int id, V value, int line) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                lines = Arrays.copyOf(lines, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            ids[size] = id;
+            lines[size] = line;
+            values[size] = value;
+            size++;
+        }
+
+        /**
+         * Builds the registry, sorted by ID.
+         *
+         * @param duplicates receives the line number and ID of every value that replaced an earlier value
+         *                   with the same ID, in line order; may be null
+         * @return the registry
+         */
+        @SuppressWarnings("unchecked")
+        IntRegistry<V> build(List<int[]> duplicates) {
+            // sort by ID, keeping equal IDs in the order they were added
+            long[] order = new long[size];
+            for (int row = 0; row < size; row++) {
+                order[row] = ((long) ids[row] << 32) | row;
+            }
+            Arrays.sort(order);
+            IntRegistry<V> registry = new IntRegistry<>(true, size);
+            List<int[]> replaced = new ArrayList<>();
+            int last = -1;
+            for (int i = 0; i < size; i++) {
+                int row = (int) order[i];
+                if (last >= 0 && ids[last] == ids[row]) {
+                    replaced.add(new int[]{lines[row], ids[row]});
+                }
+                last = row;
+                // IDs arrive in increasing order, so every put appends to the ID order
+                registry.put(ids[row], (V) values[row]);
+            }
+            if (duplicates != null) {
+                replaced.sort((a, b) -> Integer.compare(a[0], b[0]));
+                duplicates.addAll(replaced);
+            }
+            return registry;
+        }
+    }
+}
@@ -0,0 +1,521 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Compact, read-only store of all library items, kept in ID order.
+ * Instead of one object per item, every attribute is a column: IDs and kinds are primitive arrays,
+ * titles are UTF-8 bytes in one shared array, and the attributes with few distinct values
+ * (creator, category, runtime and type) are stored as codes into per-column dictionaries.
+ * <p>
+ * {@link LibraryItem} objects are created on demand as views of a row. Two views of the same row
+ * are equal, so a view can be used as a map key in place of another one.
+ */
+public class ItemCatalog implements Iterable<LibraryItem> {
+    private static final byte BOOK = 'B';
+    private static final byte MAGAZINE = 'M';
+    private static final byte DVD_ITEM = 'D';
+
+    private final int size;
+    private final int[] ids;
+    private final byte[] kinds;
+    private final int[] titleOffsets;
+    private final byte[] titles;
+    private final int[] creators;
+    private final int[] categories;
+    private final int[] runtimes;
+    private final int[] types;
+    private final StringDictionary creatorValues;
+    private final StringDictionary categoryValues;
+    private final StringDictionary runtimeValues;
+    private final StringDictionary typeValues;
+
+    private ItemCatalog(Builder builder, int[] rows) {
+        size = rows.length;
+        ids = new int[size];
+        kinds = new byte[size];
+        titleOffsets = new int[size + 1];
+        creators = new int[size];
+        categories = new int[size];
+        runtimes = new int[size];
+        types = new int[size];
+        int titleLength = 0;
+        for (int row : rows) {
+            titleLength += builder.titleOffsets[row + 1] - builder.titleOffsets[row];
+        }
+        titles = new byte[titleLength];
+        for (int i = 0; i < size; i++) {
+            int row = rows[i];
+            ids[i] = builder.ids[row];
+            kinds[i] = builder.kinds[row];
+            creators[i] = builder.creators[row];
+            categories[i] = builder.categories[row];
+            runtimes[i] = builder.runtimes[row];
+            types[i] = builder.types[row];
+            int start = builder.titleOffsets[row];
+            int length = builder.titleOffsets[row + 1] - start;
+            System.arraycopy(builder.titles, start, titles, titleOffsets[i], length);
+            titleOffsets[i + 1] = titleOffsets[i] + length;
+        }
+        creatorValues = builder.creatorValues;
+        categoryValues = builder.categoryValues;
+        runtimeValues = builder.runtimeValues;
+        typeValues = builder.typeValues;
+    }
+
+    /**
+     * Returns the number of items.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the position of the first item whose ID is greater than or equal to the given ID.
+     *
+     * @param id the ID to search for
+     * @return a position between 0 and {@link #size()}
+     */
+    public int ceilingIndex(int id) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Returns the position of the item with the given ID.
+     *
+     * @param id the item ID
+     * @return the position in ID order, or -1 if there is no such item
+     */
+    public int indexOf(int id) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Returns the item with the given ID.
+     *
+     * @param id the item ID
+     * @return a view of the item, or null if there is none
+     */
+    public LibraryItem get(int id) {
+        int index = indexOf(id);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    /**
+     * Returns true if an item with the given ID exists.
+     *
+     * @param id the item ID
+     */
+    public boolean containsKey(int id) {
+        return indexOf(id) >= 0;
+    }
+
+    /**
+     * Returns the ID at the given position in ID order.
+     *
+     * @param index position of the item
+     */
+    public int keyAt(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Returns the kind of the item at the given position: 'B' for books, 'M' for magazines and 'D' for DVDs.
+     *
+     * @param index position of the item
+     */
+    char kindAt(int index) {
+        return (char) kinds[index];
+    }
+
+    /**
+     * Returns the type (normal, reference, rare or limited) of the item at the given position,
+     * without creating a view.
+     *
+     * @param index position of the item
+     */
+    public String typeAt(int index) {
+        return typeValues.get(types[index]);
+    }
+
+    /**
+     * Returns the title of the item at the given position, without creating a view.
+     *
+     * @param index position of the item
+     */
+    public String titleAt(int index) {
+        return new String(titles, titleOffsets[index], titleOffsets[index + 1] - titleOffsets[index],
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the code of the author, publisher or director of the item at the given position.
+     *
+     * @param index position of the item
+     * @return a code between 0 and {@link #creatorCount()}
+     */
+    int creatorCodeAt(int index) {
+        return creators[index];
+    }
+
+    /**
+     * Returns the number of distinct authors, publishers and directors.
+     */
+    int creatorCount() {
+        return creatorValues.size();
+    }
+
+    /**
+     * Returns the author, publisher or director with the given code.
+     *
+     * @param code a creator code
+     */
+    String creatorName(int code) {
+        return creatorValues.get(code);
+    }
+
+    /**
+     * Returns the code of the category of the item at the given position.
+     *
+     * @param index position of the item
+     * @return a code between 0 and {@link #categoryCount()}
+     */
+    int categoryCodeAt(int index) {
+        return categories[index];
+    }
+
+    /**
+     * Returns the number of distinct categories.
+     */
+    int categoryCount() {
+        return categoryValues.size();
+    }
+
+    /**
+     * Returns the category with the given code.
+     *
+     * @param code a category code
+     */
+    String categoryName(int code) {
+        return categoryValues.get(code);
+    }
+
+    /**
+     * Returns the code of the given category.
+     *
+     * @param category the category name
+     * @return its code, or -1 if no item has this category
+     */
+    int categoryCode(String category) {
+        return categoryValues.find(category);
+    }
+
+    /**
+     * Returns the code of the type of the item at the given position.
+     *
+     * @param index position of the item
+     * @return a code between 0 and {@link #typeCount()}
+     */
+    public int typeCodeAt(int index) {
+        return types[index];
+    }
+
+    /**
+     * Returns the number of distinct item types.
+     */
+    public int typeCount() {
+        return typeValues.size();
+    }
+
+    /**
+     * Returns the type with the given code.
+     *
+     * @param code a type code
+     */
+    public String typeName(int code) {
+        return typeValues.get(code);
+    }
+
+    /**
+     * Returns the code of the given item type.
+     *
+     * @param type the type name
+     * @return its code, or -1 if no item has this type
+     */
+    public int typeCode(String type) {
+        return typeValues.find(type);
+    }
+
+    /**
+     * Creates a view of the item at the given position in ID order.
+     *
+     * @param index position of the item
+     * @return a Book, Magazine or DVD holding the stored values
+     */
+    public LibraryItem valueAt(int index) {
+        int id = ids[index];
+        String title = titleAt(index);
+        String creator = creatorValues.get(creators[index]);
+        String category = categoryValues.get(categories[index]);
+        String type = typeValues.get(types[index]);
+        switch (kinds[index]) {
+            case BOOK:
+                return new Book(id, title, creator, category, type);
+            case MAGAZINE:
+                return new Magazine(id, title, creator, category, type);
+            default:
+                return new DVD(id, title, creator, category, runtimeValues.get(runtimes[index]), type);
+        }
+    }
+
+    /**
+     * Iterates over views of all items in ID order.
+     */
+    @Override
+    public Iterator<LibraryItem> iterator() {
+        return new Iterator<LibraryItem>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public LibraryItem next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return valueAt(next++);
+            }
+        };
+    }
+
+    /**
+     * Collects items in any order and builds the catalog. When an ID is added more than once,
+     * the last one is kept.
+     */
+    static class Builder {
+        private int size = 0;
+        private int[] ids = new int[64];
+        private byte[] kinds = new byte[64];
+        private int[] titleOffsets = new int[65];
+        private byte[] titles = new byte[1024];
+        private int[] creators = new int[64];
+        private int[] categories = new int[64];
+        private int[] runtimes = new int[64];
+        private int[] types = new int[64];
+        private int[] lines = new int[64];
+        private final StringDictionary creatorValues = new StringDictionary();
+        private final StringDictionary categoryValues = new StringDictionary();
+        private final StringDictionary runtimeValues = new StringDictionary();
+        private final StringDictionary typeValues = new StringDictionary();
+
+        /**
+         * Returns the number of added items.
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Adds an item.
+         *
+         * @param item the item to add
+         */
+        void add(LibraryItem item) {
+            add(item, 0);
+        }
+
+        /**
+         * Adds an item read from the given line of a file.
+         *
+         * @param item the item to add
+         * @param line line number, used to report repeated IDs
+         */
+        void add(LibraryItem item, int line) {
+            if (item instanceof Book) {
+                Book book = (Book) item;
+                addRow(book.id, BOOK, utf8(book.title), creatorValues.code(book.author),
+                        categoryValues.code(book.category), -1, typeValues.code(book.type), line);
+            } else if (item instanceof Magazine) {
+                Magazine magazine = (Magazine) item;
+                addRow(magazine.id, MAGAZINE, utf8(magazine.title),
+                        creatorValues.code(magazine.publisher), categoryValues.code(magazine.category), -1,
+                        typeValues.code(magazine.type), line);
+            } else {
+                DVD dvd = (DVD) item;
+                addRow(dvd.id, DVD_ITEM, utf8(dvd.title), creatorValues.code(dvd.director),
+                        categoryValues.code(dvd.category), runtimeValues.code(dvd.runtime),
+                        typeValues.code(dvd.type), line);
+            }
+        }
+
+        private static byte[] utf8(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Appends all items of another builder, e.g. one that parsed a single chunk of a file.
+         *
+         * @param other       the builder whose items are appended
+         * @param lineNumbers line numbers of the appended items, relative to the line offset
+         * @param lineOffset  number added to the line numbers
+         */
+        void addAll(Builder other, int[] lineNumbers, int lineOffset) {
+            int[] creatorCodes = creatorValues.codes(other.creatorValues);
+            int[] categoryCodes = categoryValues.codes(other.categoryValues);
+            int[] runtimeCodes = runtimeValues.codes(other.runtimeValues);
+            int[] typeCodes = typeValues.codes(other.typeValues);
+            for (int row = 0; row < other.size; row++) {
+                int start = other.titleOffsets[row];
+                addRow(other.ids[row], other.kinds[row], other.titles, start, other.titleOffsets[row + 1] - start,
+                        creatorCodes[other.creators[row]], categoryCodes[other.categories[row]],
+                        other.runtimes[row] < 0 ? -1 : runtimeCodes[other.runtimes[row]],
+                        typeCodes[other.types[row]], lineNumbers[row] + lineOffset);
+            }
+        }
+
+        private void addRow(int id, byte kind, byte[] title, int creator, int category, int runtime, int type,
+                            int line) {
+            addRow(id, kind, title, 0, title.length, creator, category, runtime, type, line);
+        }
+
+        private void addRow(int id, byte kind, byte[] title, int titleOffset, int titleLength, int creator,
+                            int category, int runtime, int type, int line) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                kinds = Arrays.copyOf(kinds, capacity);
+                titleOffsets = Arrays.copyOf(titleOffsets, capacity + 1);
+                creators = Arrays.copyOf(creators, capacity);
+                categories = Arrays.copyOf(categories, capacity);
+                runtimes = Arrays.copyOf(runtimes, capacity);
+                types = Arrays.copyOf(types, capacity);
+                lines = Arrays.copyOf(lines, capacity);
+            }
+            int titleStart = titleOffsets[size];
+            if (titleStart + titleLength > titles.length) {
+                titles = Arrays.copyOf(titles, Math.max(titleStart + titleLength, titles.length * 2));
+            }
+            System.arraycopy(title, titleOffset, titles, titleStart, titleLength);
+            ids[size] = id;
+            kinds[size] = kind;
+            titleOffsets[size + 1] = titleStart + titleLength;
+            creators[size] = creator;
+            categories[size] = category;
+            runtimes[size] = runtime;
+            types[size] = type;
+            lines[size] = line;
+            size++;
+        }
+
+        /**
+         * Builds the catalog in ID order.
+         *
+         * @param duplicates receives the line number and ID of every item that replaced an earlier item
+         *                   with the same ID, in line order; may be null
+         * @return the catalog
+         */
+        ItemCatalog build(List<int[]> duplicates) {
+            // sort by ID, keeping equal IDs in the order they were added
+            long[] order = new long[size];
+            for (int row = 0; row < size; row++) {
+                order[row] = ((long) ids[row] << 32) | row;
+            }
+            Arrays.sort(order);
+            int[] rows = new int[size];
+            int count = 0;
+            List<int[]> replaced = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                int row = (int) order[i];
+                if (count > 0 && ids[rows[count - 1]] == ids[row]) {
+                    replaced.add(new int[]{lines[row], ids[row]});
+                    rows[count - 1] = row;
+                } else {
+                    rows[count++] = row;
+                }
+            }
+            if (duplicates != null) {
+                replaced.sort((a, b) -> Integer.compare(a[0], b[0]));
+                duplicates.addAll(replaced);
+            }
+            return new ItemCatalog(this, Arrays.copyOf(rows, count));
+        }
+    }
+}
+
+/**
+ * Assigns a small integer code to every distinct string, so that a column of repeated values
+ * can be stored as codes and every value is kept only once.
+ */
+class StringDictionary {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    /**
+     * Returns the code of a value, adding the value if it is new.
+     *
+     * @param value the value
+     * @return its code
+     */
+    int code(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code of a value without adding it.
+     *
+     * @param value the value
+     * @return its code, or -1 if the value is not in the dictionary
+     */
+    int find(String value) {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Returns the value with the given code.
+     *
+     * @param code a code returned by {@link #code(String)}
+     */
+    String get(int code) {
+        return values.get(code);
+    }
+
+    /**
+     * Returns the number of distinct values.
+     */
+    int size() {
+        return values.size();
+    }
+
+    /**
+     * Adds all values of another dictionary and returns, for every code of the other dictionary,
+     * the code of the same value in this one.
+     *
+     * @param other the other dictionary
+     * @return codes in this dictionary, indexed by the other dictionary's codes
+     */
+    int[] codes(StringDictionary other) {
+        int[] mapped = new int[other.values.size()];
+        for (int i = 0; i < mapped.length; i++) {
+            mapped[i] = code(other.values.get(i));
+        }
+        return mapped;
+    }
+}
@@ -0,0 +1,299 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+
+/**
+ * Append-only write-ahead journal of the state changes made by the CommandProcessor
+ * (borrows, returns, overdue removals, payments, reservations and borrow date changes).
+ * <p>
+ * Records are collected in memory and written in groups; the fsync policy decides how often
+ * the file is forced to disk. Every few commands a checkpoint saves a snapshot of the whole state
+ * and empties the journal, so recovery only has to load the latest checkpoint and replay the
+ * records written after it.
+ * <p>
+ * Every record has a fixed size: type, sequence number, three int arguments and a CRC32 checksum.
+ * A record that was only partly written before a crash fails the checksum and ends the replay.
+ */
+public class Journal implements LibraryEventListener, Closeable {
+
+    /**
+     * Determines when the journal file is forced to disk.
+     */
+    public enum FsyncPolicy {
+        /** Never force; the operating system decides when data reaches the disk. */
+        NEVER,
+        /** Force after every group of records is written. */
+        BATCH,
+        /** Write and force at the end of every command. */
+        ALWAYS
+    }
+
+    private static final byte BORROW = 1;
+    private static final byte RETURN = 2;
+    private static final byte OVERDUE = 3;
+    private static final byte PAY = 4;
+    private static final byte DATE = 5;
+    private static final byte RESERVE = 6;
+    private static final byte CANCEL = 7;
+    private static final int RECORD_SIZE = 1 + 8 + 4 * 3 + 4;
+
+    private final FileChannel channel;
+    private final FsyncPolicy fsyncPolicy;
+    private final ByteBuffer batch;
+    private final CRC32 crc = new CRC32();
+    private long sequence;
+
+    private CommandProcessor processor;
+    private String checkpointFile;
+    private int checkpointInterval;
+    private int commandsSinceCheckpoint = 0;
+
+    /**
+     * Opens the journal for appending. Anything after the last valid record is cut off.
+     *
+     * @param filePath    path of the journal file
+     * @param batchSize   number of records collected before they are written as one group
+     * @param fsyncPolicy when the file is forced to disk
+     * @param replayed    result of replaying the existing journal, giving the last sequence number and valid length
+     * @throws IOException if the file cannot be opened
+     */
+    public Journal(String filePath, int batchSize, FsyncPolicy fsyncPolicy, Replay replayed) throws IOException {
+        this.channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.channel.truncate(replayed.validLength);
+        this.channel.position(replayed.validLength);
+        this.fsyncPolicy = fsyncPolicy;
+        this.batch = ByteBuffer.allocate(Math.max(1, batchSize) * RECORD_SIZE);
+        this.sequence = replayed.lastSequence;
+    }
+
+    /**
+     * Saves a checkpoint of the processor's state every given number of commands.
+     *
+     * @param processor      the processor whose state is saved
+     * @param checkpointFile path of the checkpoint snapshot
+     * @param interval       number of commands between checkpoints; 0 disables periodic checkpoints
+     */
+    public void enableCheckpoints(CommandProcessor processor, String checkpointFile, int interval) {
+        this.processor = processor;
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = interval;
+    }
+
+    /**
+     * Returns the sequence number of the last record added to the journal.
+     */
+    public long lastSequence() {
+        return sequence;
+    }
+
+    @Override
+    public void itemBorrowed(Loan loan) {
+        append(BORROW, loan.item.id, loan.user.id, loan.borrowDay);
+    }
+
+    @Override
+    public void itemReturned(Loan loan) {
+        append(RETURN, loan.item.id, loan.user.id, 0);
+    }
+
+    @Override
+    public void loanOverdue(Loan loan, int penalty) {
+        append(OVERDUE, loan.item.id, loan.user.id, penalty);
+    }
+
+    @Override
+    public void penaltyPaid(User user, int amount) {
+        append(PAY, user.id, amount, 0);
+    }
+
+    @Override
+    public void itemReserved(User user, int itemId) {
+        append(RESERVE, user.id, itemId, 0);
+    }
+
+    @Override
+    public void reservationCancelled(User user, int itemId) {
+        append(CANCEL, user.id, itemId, 0);
+    }
+
+    @Override
+    public void borrowDateAdvanced(int day) {
+        append(DATE, day, 0, 0);
+    }
+
+    @Override
+    public void commandCompleted(String command, long elapsedNanos) {
+        try {
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                commit(true);
+            }
+            if (checkpointInterval > 0 && ++commandsSinceCheckpoint >= checkpointInterval) {
+                checkpoint();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void append(byte type, int a, int b, int c) {
+        if (!batch.hasRemaining()) {
+            try {
+                commit(fsyncPolicy != FsyncPolicy.NEVER);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        int start = batch.position();
+        batch.put(type).putLong(++sequence).putInt(a).putInt(b).putInt(c);
+        crc.reset();
+        crc.update(batch.array(), start, RECORD_SIZE - 4);
+        batch.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Writes all collected records to the journal file.
+     *
+     * @param force if true, also forces the file to disk
+     * @throws IOException if writing fails
+     */
+    public synchronized void commit(boolean force) throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) {
+            channel.write(batch);
+        }
+        batch.clear();
+        if (force) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Saves the current state as a checkpoint snapshot and empties the journal.
+     * The snapshot remembers the last journal sequence number it contains, so records
+     * that are still in the journal after a crash during this step are not applied twice.
+     * Commands running in parallel are held back while the checkpoint is written.
+     *
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public void checkpoint() throws IOException {
+        processor.stateLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                commit(true);
+                SnapshotStore.save(checkpointFile, processor, sequence);
+                channel.truncate(0);
+                channel.position(0);
+                channel.force(true);
+            }
+        } finally {
+            processor.stateLock.writeLock().unlock();
+        }
+        commandsSinceCheckpoint = 0;
+    }
+
+    /**
+     * Writes the remaining records, forces them to disk and closes the journal.
+     * Calling it more than once has no effect.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            commit(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Applies the records of a journal file to the processor, skipping records that are
+     * already contained in the checkpoint the processor was loaded from.
+     *
+     * @param filePath      path of the journal file
+     * @param processor     the processor to update
+     * @param afterSequence sequence number of the last record contained in the checkpoint
+     * @return the last sequence number and the length of the valid part of the file
+     * @throws IOException if the file cannot be read
+     */
+    public static Replay replay(String filePath, CommandProcessor processor, long afterSequence) throws IOException {
+        Path path = Paths.get(filePath);
+        Replay result = new Replay(afterSequence, 0);
+        if (!Files.exists(path)) {
+            return result;
+        }
+        CRC32 check = new CRC32();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] record = new byte[RECORD_SIZE];
+            while (in.remaining() >= RECORD_SIZE) {
+                in.get(record);
+                ByteBuffer fields = ByteBuffer.wrap(record);
+                check.reset();
+                check.update(record, 0, RECORD_SIZE - 4);
+                if (fields.getInt(RECORD_SIZE - 4) != (int) check.getValue()) {
+                    break;
+                }
+                byte type = fields.get();
+                long sequence = fields.getLong();
+                int a = fields.getInt();
+                int b = fields.getInt();
+                int c = fields.getInt();
+                result.validLength += RECORD_SIZE;
+                if (sequence <= afterSequence) {
+                    continue;
+                }
+                apply(processor, type, a, b, c);
+                result.lastSequence = sequence;
+            }
+        }
+        return result;
+    }
+
+    private static void apply(CommandProcessor processor, byte type, int a, int b, int c) {
+        switch (type) {
+            case BORROW:
+                processor.restoreLoan(b, a, c);
+                break;
+            case RETURN:
+                processor.restoreLoanEnd(a, 0);
+                break;
+            case OVERDUE:
+                processor.restoreLoanEnd(a, c);
+                break;
+            case PAY:
+                processor.restorePayment(a, b);
+                break;
+            case DATE:
+                processor.setLastProcessedBorrowDay(a);
+                break;
+            case RESERVE:
+                processor.restoreHold(a, b);
+                break;
+            case CANCEL:
+                processor.restoreCancel(a, b);
+                break;
+        }
+    }
+
+    /**
+     * Outcome of replaying a journal file.
+     */
+    public static class Replay {
+        long lastSequence;
+        long validLength;
+
+        Replay(long lastSequence, long validLength) {
+            this.lastSequence = lastSequence;
+            this.validLength = validLength;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Source of the current date used for overdue checks.
+ * The system clock reproduces real-time behaviour, while the command clock
+ * takes "today" from the date of the command being processed, so that replaying
+ * historical command files always gives the same result.
+ */
+public interface LibraryClock {
+
+    /**
+     * Returns the date that should be treated as today.
+     *
+     * @param commandDay the date carried by the command being processed, as an epoch day
+     * @return the current date as an epoch day
+     */
+    int today(int commandDay);
+
+    /**
+     * Returns a clock based on the system date ({@link java.time.LocalDate#now()}).
+     */
+    static LibraryClock system() {
+        return commandDay -> LibraryDates.today();
+    }
+
+    /**
+     * Returns a clock that uses the date of the command being processed.
+     */
+    static LibraryClock commandDate() {
+        return commandDay -> commandDay;
+    }
+
+    /**
+     * Returns the clock with the given name.
+     *
+     * @param name "system" or "command"
+     * @return the matching clock; the system clock for unknown names
+     */
+    static LibraryClock forName(String name) {
+        return "command".equals(name) ? commandDate() : system();
+    }
+}
@@ -0,0 +1,74 @@
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+
+/**
+ * Shared date handling for the library system.
+ * Dates are kept as epoch-day integers (days since 01/01/1970) in the loan model, so that overdue
+ * checks are plain integer comparisons; they are only turned into dd/MM/yyyy text when written out.
+ */
+final class LibraryDates {
+
+    /**
+     * The date format used in command files and in the output.
+     */
+    static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    private LibraryDates() {
+    }
+
+    /**
+     * Converts a calendar date into an epoch day without creating a LocalDate.
+     *
+     * @param year  the year
+     * @param month the month, from 1 to 12
+     * @param day   the day of the month
+     * @return the epoch day of the date
+     * @throws java.time.DateTimeException if the date does not exist
+     */
+    static int toEpochDay(int year, int month, int day) {
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            // let LocalDate produce the usual error message
+            LocalDate.of(year, month, day);
+        }
+        // days-from-civil, with March as the first month of the year
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Formats an epoch day as dd/MM/yyyy.
+     *
+     * @param epochDay the epoch day
+     * @return the formatted date
+     */
+    static String format(int epochDay) {
+        return LocalDate.ofEpochDay(epochDay).format(FORMATTER);
+    }
+
+    /**
+     * Returns today's date from the system clock as an epoch day.
+     */
+    static int today() {
+        return (int) LocalDate.now().toEpochDay();
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Receives the state changes made by the CommandProcessor.
+ * Components that keep their own view of the library state (such as the journal)
+ * register a listener instead of being called directly from every command.
+ * All methods have empty default implementations, so a listener only overrides what it needs.
+ */
+public interface LibraryEventListener {
+
+    /**
+     * Reasons for refusing a borrow command.
+     */
+    enum Rejection {
+        /** The user already holds the maximum number of items. */
+        LIMIT_REACHED,
+        /** The item is borrowed by someone else. */
+        NOT_AVAILABLE,
+        /** The user's unpaid penalty is too high. */
+        PENALTY,
+        /** The user's type may not borrow this type of item. */
+        TYPE_NOT_ALLOWED
+    }
+
+    /**
+     * Called after an item has been lent to a user.
+     *
+     * @param loan the new loan
+     */
+    default void itemBorrowed(Loan loan) {
+    }
+
+    /**
+     * Called after a user has returned a borrowed item.
+     *
+     * @param loan the loan that ended
+     */
+    default void itemReturned(Loan loan) {
+    }
+
+    /**
+     * Called after an overdue loan has been removed and the user has been charged.
+     *
+     * @param loan    the loan that ended
+     * @param penalty the amount added to the user's penalty
+     */
+    default void loanOverdue(Loan loan, int penalty) {
+    }
+
+    /**
+     * Called after a user has paid some of their penalty; a payment without a penalty to pay is not reported.
+     *
+     * @param user   the paying user
+     * @param amount the amount that was paid
+     */
+    default void penaltyPaid(User user, int amount) {
+    }
+
+    /**
+     * Called after a user has been put in the queue of a borrowed item.
+     *
+     * @param user   the waiting user
+     * @param itemId ID of the reserved item
+     */
+    default void itemReserved(User user, int itemId) {
+    }
+
+    /**
+     * Called after a user has cancelled a reservation, or all of their reservations. Reservations that end
+     * because the item is lent to the user are not reported here; the loan is.
+     *
+     * @param user   the waiting user
+     * @param itemId ID of the reserved item, or -1 for all reservations of the user
+     */
+    default void reservationCancelled(User user, int itemId) {
+    }
+
+    /**
+     * Called when a borrow command is refused.
+     *
+     * @param user   the user who tried to borrow
+     * @param item   the requested item
+     * @param reason why the command was refused
+     */
+    default void borrowRejected(User user, LibraryItem item, Rejection reason) {
+    }
+
+    /**
+     * Called when a borrow command moves the last processed borrow date forward.
+     *
+     * @param day the new date as an epoch day
+     */
+    default void borrowDateAdvanced(int day) {
+    }
+
+    /**
+     * Called after every command, once all its state changes have been reported.
+     *
+     * @param command      name of the command, e.g. "borrow"
+     * @param elapsedNanos time spent processing the command, in nanoseconds
+     */
+    default void commandCompleted(String command, long elapsedNanos) {
+    }
+}
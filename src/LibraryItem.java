@@ -27,6 +27,23 @@ public abstract class LibraryItem {
      * @return item details as a string
      */
     public abstract String getItemInfo();
+
+    /**
+     * Items are equal when they have the same ID, so different views of the same catalog entry
+     * can be used in place of each other.
+     *
+     * @param other the object to compare with
+     * @return true if the other object is an item with the same ID
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof LibraryItem && ((LibraryItem) other).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(id);
+    }
 }
 
 /**
@@ -132,42 +149,41 @@ class DVD extends LibraryItem {
 class ItemParser {
 
     /**
-     * Parses the provided array into a corresponding LibraryItem object.
-     * The first element of the array determines the item type.
+     * Parses the provided record into a corresponding LibraryItem object.
+     * The first field of the record determines the item type.
+     * The ID is parsed directly from the record; Strings are only created for the stored fields.
      *
-     * @param parts a string array representing an item, typically from a line split by commas
+     * @param record a comma-separated line describing an item
      * @return a Book, Magazine, or DVD object; or null if the type is unrecognized
      */
-    public static LibraryItem parse(String[] parts) {
-        switch (parts[0]) {
-            case "B": {
-                int id = Integer.parseInt(parts[1]);
-                String title = parts[2];
-                String author = parts[3];
-                String category = parts[4];
-                String type = parts[5];
-
-                return new Book(id, title, author, category, type);
-            }
-            case "M": {
-                int id = Integer.parseInt(parts[1]);
-                String title = parts[2];
-                String publisher = parts[3];
-                String category = parts[4];
-                String type = parts[5];
-
-                return new Magazine(id, title, publisher, category, type);
-            }
-            case "D": {
-                int id = Integer.parseInt(parts[1]);
-                String title = parts[2];
-                String director = parts[3];
-                String category = parts[4];
-                String runtime = parts[5];
-                String type = parts[6];
-
-                return new DVD(id, title, director, category, runtime, type);
-            }
+    public static LibraryItem parse(CsvRecord record) {
+        if (record.fieldEquals(0, "B")) {
+            int id = record.intField(1);
+            String title = record.field(2);
+            String author = record.field(3);
+            String category = record.field(4);
+            String type = record.field(5);
+
+            return new Book(id, title, author, category, type);
+        }
+        if (record.fieldEquals(0, "M")) {
+            int id = record.intField(1);
+            String title = record.field(2);
+            String publisher = record.field(3);
+            String category = record.field(4);
+            String type = record.field(5);
+
+            return new Magazine(id, title, publisher, category, type);
+        }
+        if (record.fieldEquals(0, "D")) {
+            int id = record.intField(1);
+            String title = record.field(2);
+            String director = record.field(3);
+            String category = record.field(4);
+            String runtime = record.field(5);
+            String type = record.field(6);
+
+            return new DVD(id, title, director, category, runtime, type);
         }
         return null;
     }
@@ -1,8 +1,10 @@
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.HashMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
 
 
 /**
@@ -15,43 +17,343 @@ public class LibraryManagementSystem {
     /**
      * Coordinates the overall execution of the library system by
      * loading data and delegating commands to the CommandProcessor.
+     * <p>
+     * Besides the four file paths, the output can be tuned with
+     * "--buffer-size=N", "--flush=command|lines|exit" and "--flush-lines=N".
+     * "--clock=command" makes overdue checks use the command dates instead of the system date, and
+     * "--batch-days" runs the overdue check once per date instead of on every borrow.
+     * Commands are read and processed one line at a time; a commands path of "-" reads standard input,
+     * and "--follow" keeps reading lines appended to the commands file ("--follow-idle-ms=N" stops
+     * after N milliseconds without new lines). Items and users are loaded on "--load-threads=N" threads.
+     * <p>
+     * With "--load-snapshot=path" the items, users and loans are restored from a binary snapshot and only
+     * the commands file and output file are given. "--save-snapshot=path" writes a snapshot after the last command.
+     * <p>
+     * "--journal=path" records every state change in a write-ahead journal and saves a checkpoint snapshot
+     * ("path.checkpoint") every "--checkpoint-every=N" commands. On startup the latest checkpoint is loaded
+     * and the journal records after it are replayed before new commands are processed. Records are written
+     * in groups of "--journal-batch=N" and forced to disk according to "--journal-fsync=never|batch|always".
+     * <p>
+     * "--metrics=path" collects command latencies, rejection counts and output I/O time and writes a summary
+     * to the given file every "--metrics-interval-ms=N" milliseconds and at exit; "--jmx" also publishes
+     * them as the MBean "library:type=CommandMetrics".
+     * <p>
+     * "--policy=path" loads the borrowing rules (limits, overdue days, allowed item types and penalties)
+     * from a properties file; see {@link BorrowPolicy}.
+     * <p>
+     * "--reorder-window=N" sorts commands from merged logs by date before processing them, holding them
+     * back until the latest borrow date is N days past their date (see {@link ReorderBuffer}); borrows dated
+     * earlier than that are refused instead of stopping the program.
+     * <p>
+     * "--workers=N" runs commands on N threads; commands on different users and items run in parallel,
+     * guarded by "--lock-stripes=N" lock stripes, and the output stays in input order.
+     * "--max-in-flight=N" limits how many commands may wait for their output to be written.
+     * <p>
+     * "--serve=port" keeps the library loaded and accepts commands over TCP instead of reading a commands file
+     * (see {@link LibraryServer}); the commands file is then left out of the arguments and "--bind=address"
+     * chooses the listening address (default 127.0.0.1).
+     * <p>
+     * "--scenarios=dir" loads the items and users once and runs every commands file given after them
+     * against its own copy of the loans and penalties, on "--scenario-threads=N" threads (see
+     * {@link ScenarioRunner}); each scenario is written to "dir/output-&lt;commands file name&gt;".
      *
      * @param args command-line arguments: items file, users file, commands file, and output file
      */
     public void run(String[] args) {
+        RunOptions options = new RunOptions(args);
+        if (options.has("scenarios")) {
+            runScenarios(options);
+            return;
+        }
+        String snapshotFile = options.get("load-snapshot", null);
+        int first = snapshotFile == null ? 2 : 0;
+        boolean serve = options.has("serve");
+
+        String commandsFile = serve ? null : options.positional(first);
+        String outputFile = options.positional(serve ? first : first + 1);
 
-        String itemsFile = args[0];
-        String usersFile = args[1];
-        String commandsFile = args[2];
-        String outputFile = args[3];
+        OutputSink output;
         try {
-            new PrintWriter(outputFile).close();
+            output = openOutput(outputFile, commandsFile, options);
         } catch (IOException e) {
             e.printStackTrace();
+            return;
+        }
+
+        LibraryClock clock = LibraryClock.forName(options.get("clock", "system"));
+        BorrowPolicy policy = BorrowPolicy.defaults();
+        String policyFile = options.get("policy", null);
+        if (policyFile != null) {
+            try {
+                policy = BorrowPolicy.load(policyFile);
+            } catch (IOException | NumberFormatException e) {
+                System.out.println("Error:" + policyFile);
+                e.printStackTrace();
+                output.close();
+                return;
+            }
+        }
+        String journalFile = options.get("journal", null);
+        String checkpointFile = journalFile + ".checkpoint";
+        if (snapshotFile == null && journalFile != null && Files.exists(Paths.get(checkpointFile))) {
+            snapshotFile = checkpointFile;
+        }
+
+        CommandProcessor processor;
+        long journalSequence = 0;
+        if (snapshotFile != null) {
+            try {
+                Snapshot snapshot = SnapshotStore.load(snapshotFile);
+                processor = snapshot.toProcessor(output, clock, policy);
+                journalSequence = snapshot.journalSequence;
+            } catch (IOException e) {
+                System.out.println("Error:" + snapshotFile);
+                e.printStackTrace();
+                output.close();
+                return;
+            }
+        } else {
+            CatalogLoader loader = new CatalogLoader(
+                    options.getInt("load-threads", Runtime.getRuntime().availableProcessors()));
+            ItemCatalog itemCatalog = loader.loadItems(options.positional(0));
+            IntRegistry<User> userRegistry = loader.loadUsers(options.positional(1));
+            processor = new CommandProcessor(itemCatalog, userRegistry, output, clock, policy);
         }
 
+        processor.batchByDay = options.has("batch-days");
+        processor.searchIndex();
 
-        List<String[]> items = TextFileHandler.readTxt(itemsFile);
-        List<String[]> users = TextFileHandler.readTxt(usersFile);
-        List<String[]> commands = TextFileHandler.readTxt(commandsFile);
+        Journal journal = null;
+        if (journalFile != null) {
+            try {
+                journal = openJournal(journalFile, processor, journalSequence, options);
+                journal.enableCheckpoints(processor, checkpointFile, options.getInt("checkpoint-every", 10000));
+                processor.addListener(journal);
+                Journal opened = journal;
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> closeJournal(opened)));
+            } catch (IOException e) {
+                System.out.println("Error:" + journalFile);
+                e.printStackTrace();
+                output.close();
+                return;
+            }
+        }
 
-        Map<Integer, LibraryItem> itemMap = new HashMap<>();
-        for (String[] itemRow : items) {
-            LibraryItem item = ItemParser.parse(itemRow);
-            itemMap.put(item.id, item);
+        CommandMetrics metrics = null;
+        String metricsFile = options.get("metrics", null);
+        if (metricsFile != null || options.has("jmx")) {
+            metrics = new CommandMetrics(output);
+            processor.addListener(metrics);
+            if (metricsFile != null) {
+                metrics.startReporting(metricsFile, options.getInt("metrics-interval-ms", 10000));
+            }
+            if (options.has("jmx")) {
+                metrics.registerMBean();
+            }
+        }
+
+        if (serve) {
+            runServer(processor, options);
+            closeJournal(journal);
+            output.close();
+            if (metrics != null) {
+                metrics.stopReporting();
+            }
+            return;
+        }
+
+        boolean follow = options.has("follow");
+        long idleTimeoutMs = options.getInt("follow-idle-ms", 0);
+        int workers = options.getInt("workers", 1);
+        ConcurrentCommandRunner runner = workers > 1 ? new ConcurrentCommandRunner(processor, workers,
+                options.getInt("lock-stripes", 1024), options.getInt("max-in-flight", 4096)) : null;
+        Consumer<CsvRecord> execute = runner != null ? runner::submit : processor::processCommand;
+        ReorderBuffer reorder = null;
+        if (options.has("reorder-window")) {
+            processor.stopOnUnorderedDates = false;
+            reorder = new ReorderBuffer(options.getInt("reorder-window", 0), execute, late -> {
+                if (runner != null) {
+                    runner.finish();
+                }
+                processor.rejectLateBorrow();
+            });
+        }
+        try (RecordReader commands = RecordReader.open(commandsFile, follow, idleTimeoutMs)) {
+            CsvRecord command = new CsvRecord();
+            while (commands.next(command)) {
+                if (reorder != null) {
+                    reorder.submit(command);
+                } else {
+                    execute.accept(command);
+                }
+            }
+            if (reorder != null) {
+                reorder.flush();
+            }
+            if (runner != null) {
+                runner.finish();
+            }
+            if (options.has("save-snapshot")) {
+                SnapshotStore.save(options.get("save-snapshot", null), processor);
+            }
+        } catch (IOException e) {
+            System.out.println("Error:" + commandsFile);
+            e.printStackTrace();
+        } finally {
+            if (runner != null) {
+                runner.close();
+            }
+            closeJournal(journal);
+            output.close();
+            if (metrics != null) {
+                metrics.stopReporting();
+            }
         }
 
-        Map<Integer, User> userMap = new HashMap<>();
-        for (String[] userRow : users) {
-            User user = UserParser.parse(userRow);
-            userMap.put(user.id, user);
+    }
+
+    /**
+     * Loads the items and users once and runs every commands file as an independent scenario.
+     *
+     * @param options parsed command-line options: items file, users file, then the commands files
+     */
+    private void runScenarios(RunOptions options) {
+        BorrowPolicy policy = BorrowPolicy.defaults();
+        String policyFile = options.get("policy", null);
+        if (policyFile != null) {
+            try {
+                policy = BorrowPolicy.load(policyFile);
+            } catch (IOException | NumberFormatException e) {
+                System.out.println("Error:" + policyFile);
+                e.printStackTrace();
+                return;
+            }
+        }
+        Path outputDir = Paths.get(options.get("scenarios", "."));
+        try {
+            Files.createDirectories(outputDir);
+        } catch (IOException e) {
+            System.out.println("Error:" + outputDir);
+            e.printStackTrace();
+            return;
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        CatalogLoader loader = new CatalogLoader(options.getInt("load-threads", cores));
+        ItemCatalog itemCatalog = loader.loadItems(options.positional(0));
+        IntRegistry<User> userRegistry = loader.loadUsers(options.positional(1));
+        List<String> commandsFiles = new ArrayList<>();
+        for (int i = 2; i < options.positionalCount(); i++) {
+            commandsFiles.add(options.positional(i));
+        }
+
+        ScenarioRunner runner = new ScenarioRunner(itemCatalog, userRegistry,
+                LibraryClock.forName(options.get("clock", "system")), policy, options.has("batch-days"));
+        runner.runAll(commandsFiles, options.getInt("scenario-threads", cores), commandsFile -> openOutput(
+                outputDir.resolve("output-" + Paths.get(commandsFile).getFileName()).toString(), commandsFile, options));
+    }
+
+    /**
+     * Serves commands over TCP until the server is stopped, e.g. by terminating the process.
+     *
+     * @param processor the processor executing the commands
+     * @param options   parsed command-line options
+     */
+    private void runServer(CommandProcessor processor, RunOptions options) {
+        String port = options.get("serve", "true");
+        LibraryServer server;
+        try {
+            server = new LibraryServer(processor, options.get("bind", "127.0.0.1"),
+                    "true".equals(port) ? LibraryServer.DEFAULT_PORT : Integer.parseInt(port));
+        } catch (IOException e) {
+            System.out.println("Error:" + options.get("bind", "127.0.0.1") + ":" + port);
+            e.printStackTrace();
+            return;
         }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            processor.output.close();
+        }));
+        try {
+            System.out.println("Listening on " + server.address());
+            server.serve();
+        } catch (IOException e) {
+            System.out.println("Error:" + options.get("bind", "127.0.0.1") + ":" + port);
+            e.printStackTrace();
+        } finally {
+            server.close();
+        }
+    }
 
-        CommandProcessor processor = new CommandProcessor(itemMap, userMap, outputFile);
+    /**
+     * Replays the existing journal into the processor and opens it for appending new records.
+     *
+     * @param journalFile     path of the journal file
+     * @param processor       the processor restored from the latest checkpoint or the input files
+     * @param journalSequence sequence number of the last record contained in the checkpoint
+     * @param options         parsed command-line options
+     * @return the open journal
+     * @throws IOException if the journal cannot be read or opened
+     */
+    private Journal openJournal(String journalFile, CommandProcessor processor, long journalSequence,
+                                RunOptions options) throws IOException {
+        Journal.Replay replayed = Journal.replay(journalFile, processor, journalSequence);
+        Journal.FsyncPolicy fsyncPolicy;
+        switch (options.get("journal-fsync", "batch")) {
+            case "never":
+                fsyncPolicy = Journal.FsyncPolicy.NEVER;
+                break;
+            case "always":
+                fsyncPolicy = Journal.FsyncPolicy.ALWAYS;
+                break;
+            default:
+                fsyncPolicy = Journal.FsyncPolicy.BATCH;
+                break;
+        }
+        return new Journal(journalFile, options.getInt("journal-batch", 256), fsyncPolicy, replayed);
+    }
 
-        for (String[] command : commands) {
-            processor.processCommand(command);
+    /**
+     * Writes the remaining journal records and closes the journal. Safe to call more than once.
+     *
+     * @param journal the journal to close, or null
+     */
+    private static void closeJournal(Journal journal) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+    }
 
+    /**
+     * Opens the output sink using the buffer and flush settings given on the command line.
+     *
+     * @param outputFile   path of the output file
+     * @param commandsFile path of the commands file, "-" for standard input
+     * @param options      parsed command-line options
+     * @return an open output sink
+     * @throws IOException if the output file cannot be opened
+     */
+    private OutputSink openOutput(String outputFile, String commandsFile, RunOptions options) throws IOException {
+        int bufferSize = options.getInt("buffer-size", OutputSink.DEFAULT_BUFFER_SIZE);
+        int flushLines = options.getInt("flush-lines", 1000);
+        OutputSink.FlushPolicy policy;
+        boolean interactive = options.has("follow") || options.has("serve") || "-".equals(commandsFile);
+        switch (options.get("flush", interactive ? "command" : "exit")) {
+            case "command":
+                policy = OutputSink.FlushPolicy.PER_COMMAND;
+                break;
+            case "lines":
+                policy = OutputSink.FlushPolicy.EVERY_N_LINES;
+                break;
+            default:
+                policy = OutputSink.FlushPolicy.ON_EXIT;
+                break;
+        }
+        return new OutputSink(outputFile, bufferSize, policy, flushLines);
     }
-}
\ No newline at end of file
+}
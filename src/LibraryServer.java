@@ -0,0 +1,189 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Keeps a loaded library in memory and accepts commands over a TCP socket, so desk terminals
+ * do not have to start a new JVM and load the catalog for every batch of commands.
+ * <p>
+ * Clients send commands in the same comma-separated form as the commands file, one per line.
+ * For every command the server sends back the lines the command would write to the output file,
+ * followed by an empty line. "quit" closes the connection. Every connection is served by its own
+ * thread; commands from all connections are executed one at a time, in the order they arrive,
+ * and their responses are also written to the output file.
+ */
+public class LibraryServer implements Closeable {
+
+    /**
+     * Port used when "--serve" is given without a port number.
+     */
+    public static final int DEFAULT_PORT = 7070;
+
+    private final CommandProcessor processor;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopped = false;
+
+    /**
+     * Opens the server socket. Borrow commands with out-of-order dates are refused instead of stopping the program.
+     *
+     * @param processor the processor executing the commands
+     * @param host      address to listen on
+     * @param port      port to listen on; 0 picks a free port
+     * @throws IOException if the socket cannot be opened
+     */
+    public LibraryServer(CommandProcessor processor, String host, int port) throws IOException {
+        this.processor = processor;
+        this.processor.stopOnUnorderedDates = false;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getByName(host), port));
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "connection-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the address and port the server listens on.
+     */
+    public String address() {
+        return serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server is closed.
+     *
+     * @throws IOException if accepting a connection fails
+     */
+    public void serve() throws IOException {
+        while (!stopped) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (stopped) {
+                    return;
+                }
+                throw e;
+            }
+            socket.setTcpNoDelay(true);
+            clients.add(socket);
+            connections.execute(() -> handle(socket));
+        }
+    }
+
+    /**
+     * Reads commands from one connection and sends back their responses.
+     *
+     * @param socket the client connection
+     */
+    private void handle(Socket socket) {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()))) {
+            CsvRecord command = new CsvRecord();
+            String line;
+            while ((line = in.readLine()) != null && !stopped) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.equals("quit")) {
+                    break;
+                }
+                command.set(line);
+                out.write(execute(command));
+                out.write(System.lineSeparator());
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                e.printStackTrace();
+            }
+        } finally {
+            clients.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Executes one command and returns its responses. The responses are also written to the output file.
+     *
+     * @param command the command
+     * @return the response lines, each followed by a line separator
+     */
+    String execute(CsvRecord command) {
+        StringWriter responses = new StringWriter();
+        OutputSink buffer = new OutputSink(responses, 1024, OutputSink.FlushPolicy.ON_EXIT, 1);
+        processor.stateLock.writeLock().lock();
+        try {
+            if (stopped) {
+                return "";
+            }
+            long start = System.nanoTime();
+            String name;
+            try {
+                name = processor.execute(command, buffer);
+            } catch (RuntimeException e) {
+                buffer.writeLine("Invalid command: " + command);
+                name = "unknown";
+            }
+            long elapsed = System.nanoTime() - start;
+            buffer.close();
+            processor.output.writeText(responses.toString());
+            processor.completeCommand(name, elapsed);
+        } finally {
+            processor.stateLock.writeLock().unlock();
+        }
+        return responses.toString();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones. A command that is being executed
+     * is finished first; no command is executed afterwards. Safe to call more than once.
+     */
+    @Override
+    public void close() {
+        processor.stateLock.writeLock().lock();
+        try {
+            stopped = true;
+        } finally {
+            processor.stateLock.writeLock().unlock();
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (Socket socket : clients) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        connections.shutdownNow();
+    }
+}
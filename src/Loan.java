@@ -0,0 +1,24 @@
+/**
+ * A single active loan: which user borrowed which item, when, and when it becomes overdue.
+ */
+class Loan {
+    final User user;
+    final LibraryItem item;
+    final int borrowDay;
+    final int dueDay;
+
+    /**
+     * Constructs a Loan.
+     *
+     * @param user       the borrowing user
+     * @param item       the borrowed item
+     * @param borrowDay  the epoch day the item was borrowed
+     * @param dueDay     the epoch day on which the loan becomes overdue
+     */
+    Loan(User user, LibraryItem item, int borrowDay, int dueDay) {
+        this.user = user;
+        this.item = item;
+        this.borrowDay = borrowDay;
+        this.dueDay = dueDay;
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Central record of all active loans, keyed by item ID.
+ * Allows the system to find the current borrower of an item without scanning every user.
+ * The methods are synchronized, so commands for different items may update the registry in parallel.
+ */
+public class LoanRegistry {
+    private final IntRegistry<Loan> loansByItem = new IntRegistry<>(false);
+
+    /**
+     * Records a new loan.
+     *
+     * @param user       the borrowing user
+     * @param item       the borrowed item
+     * @param borrowDay  the epoch day the item was borrowed
+     * @param dueDay     the epoch day on which the loan becomes overdue
+     * @return the created loan
+     */
+    public synchronized Loan add(User user, LibraryItem item, int borrowDay, int dueDay) {
+        Loan loan = new Loan(user, item, borrowDay, dueDay);
+        loansByItem.put(item.id, loan);
+        return loan;
+    }
+
+    /**
+     * Removes the loan of the given item, if any.
+     *
+     * @param itemId ID of the item
+     * @return the removed loan, or null if the item was not borrowed
+     */
+    public synchronized Loan remove(int itemId) {
+        return loansByItem.remove(itemId);
+    }
+
+    /**
+     * Returns the active loan of the given item.
+     *
+     * @param itemId ID of the item
+     * @return the loan, or null if the item is available
+     */
+    public synchronized Loan get(int itemId) {
+        return loansByItem.get(itemId);
+    }
+
+    /**
+     * Returns true if the given item is currently borrowed by someone.
+     *
+     * @param itemId ID of the item
+     */
+    public synchronized boolean isBorrowed(int itemId) {
+        return loansByItem.containsKey(itemId);
+    }
+
+    /**
+     * Returns all active loans.
+     */
+    public Iterable<Loan> all() {
+        return loansByItem;
+    }
+
+    /**
+     * Returns the number of active loans.
+     */
+    public synchronized int size() {
+        return loansByItem.size();
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+
+/**
+ * Buffered output target that stays open for the whole run of the library system.
+ * Response lines are collected in a single buffer and written to the output file
+ * according to the selected flush policy, instead of reopening the file for every line.
+ */
+public class OutputSink implements Closeable {
+
+    /**
+     * Default size of the output buffer in characters.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Determines when buffered lines are pushed to the output file.
+     */
+    public enum FlushPolicy {
+        /** Flush after every processed command. */
+        PER_COMMAND,
+        /** Flush after every N written lines. */
+        EVERY_N_LINES,
+        /** Flush only when the buffer is full or the sink is closed. */
+        ON_EXIT
+    }
+
+    private final Writer writer;
+    private final TimedWriter target;
+    private final FlushPolicy flushPolicy;
+    private final int flushInterval;
+    private int linesSinceFlush = 0;
+    private boolean closed = false;
+
+    /**
+     * Opens a sink on the given file, truncating any previous content.
+     *
+     * @param filePath      the path to the output file
+     * @param bufferSize    size of the output buffer in characters
+     * @param flushPolicy   when buffered lines should be flushed
+     * @param flushInterval number of lines between flushes for {@link FlushPolicy#EVERY_N_LINES}
+     * @throws IOException if the file cannot be opened
+     */
+    public OutputSink(String filePath, int bufferSize, FlushPolicy flushPolicy, int flushInterval) throws IOException {
+        this(new OutputStreamWriter(new FileOutputStream(filePath, false)), bufferSize, flushPolicy, flushInterval);
+    }
+
+    /**
+     * Creates a sink on top of an existing writer.
+     *
+     * @param target        the writer receiving the output
+     * @param bufferSize    size of the output buffer in characters
+     * @param flushPolicy   when buffered lines should be flushed
+     * @param flushInterval number of lines between flushes for {@link FlushPolicy#EVERY_N_LINES}
+     */
+    public OutputSink(Writer target, int bufferSize, FlushPolicy flushPolicy, int flushInterval) {
+        this.target = new TimedWriter(target);
+        this.writer = new BufferedWriter(this.target, bufferSize);
+        this.flushPolicy = flushPolicy;
+        this.flushInterval = Math.max(1, flushInterval);
+    }
+
+    /**
+     * Writes a single line to the buffer.
+     *
+     * @param line the line to be written
+     */
+    public void writeLine(String line) {
+        try {
+            writer.write(line);
+            writer.write(System.lineSeparator());
+            if (flushPolicy == FlushPolicy.EVERY_N_LINES && ++linesSinceFlush >= flushInterval) {
+                flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes text that already ends with line separators, such as the responses of a command
+     * that were collected separately.
+     *
+     * @param text the lines to be written
+     */
+    public void writeText(String text) {
+        try {
+            writer.write(text);
+            if (flushPolicy == FlushPolicy.EVERY_N_LINES) {
+                for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+                    linesSinceFlush++;
+                }
+                if (linesSinceFlush >= flushInterval) {
+                    flush();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Marks the end of a command; flushes the buffer when the policy is {@link FlushPolicy#PER_COMMAND}.
+     */
+    public void endCommand() {
+        if (flushPolicy == FlushPolicy.PER_COMMAND) {
+            flush();
+        }
+    }
+
+    /**
+     * Pushes all buffered lines to the output file.
+     */
+    public void flush() {
+        try {
+            writer.flush();
+            linesSinceFlush = 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the total time spent writing buffered output to the underlying file, in nanoseconds.
+     */
+    public long ioNanos() {
+        return target.nanos;
+    }
+
+    /**
+     * Flushes the remaining lines and closes the output file. Calling it more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Passes everything to another writer and measures how long the calls take.
+     */
+    private static class TimedWriter extends Writer {
+        private final Writer out;
+        private volatile long nanos = 0;
+
+        TimedWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            long start = System.nanoTime();
+            out.write(buffer, offset, length);
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            out.flush();
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void close() throws IOException {
+            long start = System.nanoTime();
+            out.close();
+            nanos += System.nanoTime() - start;
+        }
+    }
+}
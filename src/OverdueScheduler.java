@@ -0,0 +1,52 @@
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+
+/**
+ * Keeps active loans ordered by the day they become overdue, then by item ID, so that an overdue check
+ * only has to look at the loans that actually expired instead of every borrowed item.
+ * Returned loans are not removed from the queue; they are skipped when they reach the head.
+ * The methods are synchronized, so loans may be scheduled by commands running in parallel.
+ */
+public class OverdueScheduler {
+    // loans due on the same day expire in item ID order, whatever order parallel borrows scheduled them in
+    private final PriorityQueue<Loan> queue = new PriorityQueue<>(
+            Comparator.comparingInt((Loan loan) -> loan.dueDay).thenComparingInt(loan -> loan.item.id));
+
+    /**
+     * Adds a new loan to the schedule.
+     *
+     * @param loan the loan to watch
+     */
+    public synchronized void schedule(Loan loan) {
+        queue.add(loan);
+    }
+
+    /**
+     * Removes and returns the next loan whose due date is on or before the given day.
+     * Loans that are no longer active in the registry are discarded on the way.
+     *
+     * @param today    the current date as an epoch day
+     * @param registry the registry of active loans
+     * @return an expired active loan, or null if no more loans have expired
+     */
+    public synchronized Loan pollExpired(int today, LoanRegistry registry) {
+        while (!queue.isEmpty() && !(queue.peek().dueDay > today)) {
+            Loan loan = queue.poll();
+            if (registry.get(loan.item.id) == loan) {
+                return loan;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the earliest due day in the schedule. Returned loans may still be counted,
+     * so no active loan becomes overdue before this day.
+     *
+     * @return the earliest due day as an epoch day, or Integer.MAX_VALUE if nothing is scheduled
+     */
+    public synchronized int nextDueDay() {
+        return queue.isEmpty() ? Integer.MAX_VALUE : queue.peek().dueDay;
+    }
+}
@@ -0,0 +1,222 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+
+/**
+ * Records every penalty charge and payment and keeps the balances indexed for the finance reports.
+ * <p>
+ * Users who owe something are kept in a tree ordered by balance (highest first, then by ID), so the
+ * top debtors and the users at or above the blocking penalty are found in logarithmic time plus the
+ * number of users listed. Outstanding totals per user category and the number of blocked users are
+ * updated with every change, so they are read in constant time.
+ * <p>
+ * Events may arrive from different threads when commands run in parallel, so all methods are synchronized.
+ */
+public class PenaltyLedger implements LibraryEventListener {
+    private static final Comparator<Account> BY_BALANCE = (a, b) -> a.balance != b.balance
+            ? Integer.compare(b.balance, a.balance) : Integer.compare(a.user.id, b.user.id);
+
+    private final IntRegistry<Account> accounts = new IntRegistry<>(false);
+    private final TreeSet<Account> debtors = new TreeSet<>(BY_BALANCE);
+    private final long[] outstanding = new long[BorrowPolicy.categoryCount()];
+    private final int blockingPenalty;
+    private int blockedUsers = 0;
+    private int currentDay = Integer.MIN_VALUE;
+
+    /**
+     * Creates a ledger starting from the current penalties of the given users, e.g. ones restored from a snapshot.
+     * Those penalties are recorded as opening charges without a date.
+     *
+     * @param users           the registry of users
+     * @param blockingPenalty penalty amount from which a user may not borrow
+     */
+    public PenaltyLedger(IntRegistry<User> users, int blockingPenalty) {
+        this.blockingPenalty = blockingPenalty;
+        for (User user : users) {
+            if (user.penalty > 0) {
+                charge(user, user.penalty);
+            }
+        }
+    }
+
+    /**
+     * Creates a ledger holding a copy of another ledger's balances and history, e.g. for a scenario that
+     * starts from shared state. Only the users who owe something or have a history are copied.
+     *
+     * @param base the ledger to copy
+     */
+    public PenaltyLedger(PenaltyLedger base) {
+        synchronized (base) {
+            blockingPenalty = base.blockingPenalty;
+            blockedUsers = base.blockedUsers;
+            currentDay = base.currentDay;
+            System.arraycopy(base.outstanding, 0, outstanding, 0, outstanding.length);
+            for (Account account : base.accounts) {
+                Account copy = new Account(account.user);
+                copy.balance = account.balance;
+                copy.entries = account.entries.clone();
+                copy.entryCount = account.entryCount;
+                accounts.put(copy.user.id, copy);
+                if (copy.balance > 0) {
+                    debtors.add(copy);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a charge to a user.
+     *
+     * @param user   the charged user
+     * @param amount the amount added to the user's penalty
+     */
+    public synchronized void charge(User user, int amount) {
+        change(user, amount);
+    }
+
+    /**
+     * Records a payment by a user.
+     *
+     * @param user   the paying user
+     * @param amount the amount that was paid
+     */
+    public synchronized void payment(User user, int amount) {
+        change(user, -amount);
+    }
+
+    private void change(User user, int amount) {
+        if (amount == 0) {
+            return;
+        }
+        Account account = accounts.get(user.id);
+        if (account == null) {
+            account = new Account(user);
+            accounts.put(user.id, account);
+        }
+        if (account.balance > 0) {
+            debtors.remove(account);
+        }
+        if (account.balance >= blockingPenalty) {
+            blockedUsers--;
+        }
+        // keep the latest object of the user, e.g. a scenario's own copy of a shared user
+        account.user = user;
+        account.record(amount, currentDay);
+        outstanding[user.getCategory()] += amount;
+        if (account.balance > 0) {
+            debtors.add(account);
+        }
+        if (account.balance >= blockingPenalty) {
+            blockedUsers++;
+        }
+    }
+
+    /**
+     * Returns the users with the highest penalties, highest first.
+     *
+     * @param limit maximum number of users returned
+     */
+    public synchronized List<User> topDebtors(int limit) {
+        List<User> top = new ArrayList<>(Math.min(limit, debtors.size()));
+        for (Account account : debtors) {
+            if (top.size() >= limit) {
+                break;
+            }
+            top.add(account.user);
+        }
+        return top;
+    }
+
+    /**
+     * Returns the users whose penalty is at or above the blocking penalty, highest first.
+     */
+    public synchronized List<User> blockedUsers() {
+        List<User> blocked = new ArrayList<>(blockedUsers);
+        for (Account account : debtors) {
+            if (account.balance < blockingPenalty) {
+                break;
+            }
+            blocked.add(account.user);
+        }
+        return blocked;
+    }
+
+    /**
+     * Returns the number of users whose penalty is at or above the blocking penalty.
+     */
+    public synchronized int blockedCount() {
+        return blockedUsers;
+    }
+
+    /**
+     * Returns the total unpaid penalty of the users of a category.
+     *
+     * @param category category index, e.g. {@link BorrowPolicy#STUDENT}
+     */
+    public synchronized long outstanding(int category) {
+        return outstanding[category];
+    }
+
+    /**
+     * Returns the charges and payments of a user, oldest first. Every entry holds the amount (positive for
+     * a charge, negative for a payment), the date of the last borrow command at that time as an epoch day
+     * ({@link Integer#MIN_VALUE} if unknown), and the balance after it.
+     *
+     * @param userId ID of the user
+     * @return the entries, each as {amount, day, balance}
+     */
+    public synchronized int[][] history(int userId) {
+        Account account = accounts.get(userId);
+        if (account == null) {
+            return new int[0][];
+        }
+        int[][] entries = new int[account.entryCount][];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = Arrays.copyOfRange(account.entries, i * 3, i * 3 + 3);
+        }
+        return entries;
+    }
+
+    @Override
+    public void loanOverdue(Loan loan, int penalty) {
+        charge(loan.user, penalty);
+    }
+
+    @Override
+    public void penaltyPaid(User user, int amount) {
+        payment(user, amount);
+    }
+
+    @Override
+    public synchronized void borrowDateAdvanced(int day) {
+        currentDay = day;
+    }
+
+    /**
+     * The balance and history of one user.
+     */
+    private static class Account {
+        User user;
+        int balance;
+        int[] entries = new int[6];
+        int entryCount;
+
+        Account(User user) {
+            this.user = user;
+        }
+
+        void record(int amount, int day) {
+            balance += amount;
+            if ((entryCount + 1) * 3 > entries.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            entries[entryCount * 3] = amount;
+            entries[entryCount * 3 + 1] = day;
+            entries[entryCount * 3 + 2] = balance;
+            entryCount++;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+
+
+/**
+ * Reads comma-separated records one line at a time, so that they can be processed while the input
+ * is still being read. Memory use does not depend on the length of the input. The source can be a file,
+ * standard input ("-"), or a file that is still growing, in which case the reader waits for new lines
+ * instead of stopping at the end.
+ */
+public class RecordReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long POLL_INTERVAL_MS = 200;
+
+    private final Reader reader;
+    private final boolean follow;
+    private final long idleTimeoutMs;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private char[] line = new char[256];
+    private int lineLength = 0;
+    private int position = 0;
+    private int limit = 0;
+    private boolean finished = false;
+
+    /**
+     * Creates a reader on top of an open character stream.
+     *
+     * @param reader        the source of records
+     * @param follow        if true, waits for more data at the end of the stream instead of stopping
+     * @param idleTimeoutMs when following, stop after this many milliseconds without new data (0 waits forever)
+     */
+    public RecordReader(Reader reader, boolean follow, long idleTimeoutMs) {
+        this.reader = reader;
+        this.follow = follow;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * Opens a reader for a regular file that stops at the end of the file.
+     *
+     * @param filePath the path to the file
+     * @return an open record reader
+     * @throws IOException if the file cannot be opened
+     */
+    public static RecordReader open(String filePath) throws IOException {
+        return open(filePath, false, 0);
+    }
+
+    /**
+     * Opens a reader for the given path, where "-" stands for standard input.
+     *
+     * @param filePath      the path to the file, or "-"
+     * @param follow        if true, keeps reading lines appended to the file
+     * @param idleTimeoutMs when following, stop after this many milliseconds without new data (0 waits forever)
+     * @return an open record reader
+     * @throws IOException if the file cannot be opened
+     */
+    public static RecordReader open(String filePath, boolean follow, long idleTimeoutMs) throws IOException {
+        InputStream in = "-".equals(filePath) ? System.in : new FileInputStream(filePath);
+        return new RecordReader(new InputStreamReader(in), follow, idleTimeoutMs);
+    }
+
+    /**
+     * Reads the next line into the given record.
+     *
+     * @param record the record to fill
+     * @return false when there are no more lines
+     * @throws IOException if reading fails
+     */
+    public boolean next(CsvRecord record) throws IOException {
+        if (!readLine()) {
+            return false;
+        }
+        record.set(line, 0, lineLength);
+        return true;
+    }
+
+    /**
+     * Collects the characters of the next line into the line buffer.
+     *
+     * @return false when there are no more lines
+     * @throws IOException if reading fails
+     */
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        while (true) {
+            for (int i = position; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    append(position, i);
+                    position = i + 1;
+                    if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                        lineLength--;
+                    }
+                    return true;
+                }
+            }
+            append(position, limit);
+            position = 0;
+            limit = 0;
+            if (!fill()) {
+                return lineLength > 0;
+            }
+        }
+    }
+
+    private void append(int from, int to) {
+        int count = to - from;
+        if (lineLength + count > line.length) {
+            line = Arrays.copyOf(line, Math.max(lineLength + count, line.length * 2));
+        }
+        System.arraycopy(buffer, from, line, lineLength, count);
+        lineLength += count;
+    }
+
+    /**
+     * Refills the buffer, waiting for new data when following a growing source.
+     *
+     * @return false if the end of the input has been reached
+     * @throws IOException if reading fails
+     */
+    private boolean fill() throws IOException {
+        if (finished) {
+            return false;
+        }
+        long idleSince = System.currentTimeMillis();
+        while (true) {
+            int read = reader.read(buffer, 0, buffer.length);
+            if (read > 0) {
+                limit = read;
+                return true;
+            }
+            if (read < 0 && !follow) {
+                finished = true;
+                return false;
+            }
+            if (idleTimeoutMs > 0 && System.currentTimeMillis() - idleSince >= idleTimeoutMs) {
+                finished = true;
+                return false;
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                finished = true;
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
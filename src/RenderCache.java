@@ -0,0 +1,133 @@
+/**
+ * Keeps the text that displayUsers and displayItems write for every user and item, so a listing only
+ * has to copy the cached blocks to the output instead of building every line again.
+ * A block is rebuilt the next time it is displayed after a borrow, return, overdue removal or payment
+ * changed the user or item it describes.
+ * <p>
+ * Blocks are stored by the position of the user or item in its sorted registry. Events for different
+ * users and items may arrive from different threads, since each of them only clears its own slot.
+ */
+public class RenderCache implements LibraryEventListener {
+    private final ItemCatalog items;
+    private final IntRegistry<User> users;
+    private String[] itemBlocks;
+    private String[] userBlocks;
+
+    /**
+     * Creates an empty cache for the given registries. The registries must not change size afterwards.
+     * The block tables are allocated by the first listing that needs them, so a processor that never
+     * lists users or items does not pay for them.
+     *
+     * @param items catalog of library items
+     * @param users registry of users, sorted by ID
+     */
+    public RenderCache(ItemCatalog items, IntRegistry<User> users) {
+        this.items = items;
+        this.users = users;
+    }
+
+    /**
+     * Returns the displayUsers text of the user at the given position, building it if needed.
+     *
+     * @param index position of the user in ID order
+     * @return the lines of the block, each followed by a line separator
+     */
+    public String userBlock(int index) {
+        if (userBlocks == null) {
+            userBlocks = new String[users.size()];
+        }
+        String block = userBlocks[index];
+        if (block == null) {
+            User user = users.valueAt(index);
+            String separator = System.lineSeparator();
+            StringBuilder sb = new StringBuilder(160);
+            sb.append(' ').append(separator);
+            sb.append("------ User Information for ").append(user.id).append(" ------").append(separator);
+            sb.append(user.getUserInfo()).append(separator);
+            if (user.penalty > 0) {
+                sb.append("Penalty: ").append(user.penalty).append('$').append(separator);
+            }
+            block = sb.toString();
+            userBlocks[index] = block;
+        }
+        return block;
+    }
+
+    /**
+     * Returns the displayItems text of the item at the given position, building it if needed.
+     *
+     * @param index position of the item in ID order
+     * @param loans the active loans, used for the status line
+     * @return the lines of the block, each followed by a line separator
+     */
+    public String itemBlock(int index, LoanRegistry loans) {
+        if (itemBlocks == null) {
+            itemBlocks = new String[items.size()];
+        }
+        String block = itemBlocks[index];
+        if (block == null) {
+            LibraryItem item = items.valueAt(index);
+            Loan loan = loans.get(item.id);
+            String separator = System.lineSeparator();
+            StringBuilder sb = new StringBuilder(200);
+            sb.append(' ').append(separator);
+            sb.append("------ Item Information for ").append(item.id).append(" ------").append(separator);
+            sb.append("ID: ").append(item.id).append(" Name: ").append(item.title)
+                    .append(" Status: ").append(loan != null ? "Borrowed" : "Available");
+            if (loan != null) {
+                sb.append(" Borrowed Date: ").append(LibraryDates.format(loan.borrowDay))
+                        .append(" Borrowed by: ").append(loan.user.name);
+            }
+            sb.append(separator);
+            sb.append(item.getItemInfo()).append(separator);
+            block = sb.toString();
+            itemBlocks[index] = block;
+        }
+        return block;
+    }
+
+    /**
+     * Drops the cached block of an item.
+     *
+     * @param item the item whose status changed
+     */
+    void itemChanged(LibraryItem item) {
+        int index = items.indexOf(item.id);
+        if (index >= 0 && itemBlocks != null) {
+            itemBlocks[index] = null;
+        }
+    }
+
+    /**
+     * Drops the cached block of a user.
+     *
+     * @param user the user whose penalty changed
+     */
+    void userChanged(User user) {
+        int index = users.ceilingIndex(user.id);
+        if (userBlocks != null && index < userBlocks.length && users.keyAt(index) == user.id) {
+            userBlocks[index] = null;
+        }
+    }
+
+    @Override
+    public void itemBorrowed(Loan loan) {
+        itemChanged(loan.item);
+    }
+
+    @Override
+    public void itemReturned(Loan loan) {
+        itemChanged(loan.item);
+    }
+
+    @Override
+    public void loanOverdue(Loan loan, int penalty) {
+        itemChanged(loan.item);
+        userChanged(loan.user);
+    }
+
+    @Override
+    public void penaltyPaid(User user, int amount) {
+        userChanged(user);
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+
+/**
+ * Puts commands from several interleaved logs back into date order before they are processed.
+ * <p>
+ * Commands are held back until the latest borrow date seen is more than a window of days past their date,
+ * and are then passed on sorted by date; commands with the same date keep their input order. Commands
+ * without a date (return, pay, displays) take the latest borrow date seen, so they stay behind every
+ * command that came before them in the input. A borrow dated before the window, which can no longer be
+ * put in order, is passed to a separate handler instead, at the same place as a command without a date,
+ * so its rejection appears in input order.
+ * <p>
+ * Input that is already in date order is passed on unchanged, only later. The buffer holds at most the
+ * commands of the last window of days.
+ */
+public class ReorderBuffer {
+    private final int windowDays;
+    private final Consumer<CsvRecord> next;
+    private final Consumer<CsvRecord> late;
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private long sequence = 0;
+    private int latestDay = Integer.MIN_VALUE;
+
+    /**
+     * Creates a buffer.
+     *
+     * @param windowDays number of days a borrow may be dated before the latest borrow date seen
+     * @param next       receives the commands in date order
+     * @param late       receives the borrows that are dated before the window
+     */
+    public ReorderBuffer(int windowDays, Consumer<CsvRecord> next, Consumer<CsvRecord> late) {
+        this.windowDays = Math.max(0, windowDays);
+        this.next = next;
+        this.late = late;
+    }
+
+    /**
+     * Adds a command and passes on the commands that can no longer be preceded by a later one.
+     *
+     * @param command a record holding the components of the command; it may be reused after this call
+     */
+    public void submit(CsvRecord command) {
+        int day = latestDay;
+        boolean tooLate = false;
+        if (command.fieldEquals(0, "borrow")) {
+            int borrowDay = command.epochDayField(3);
+            if ((long) borrowDay < (long) latestDay - windowDays) {
+                tooLate = true;
+            } else {
+                day = borrowDay;
+                if (borrowDay > latestDay) {
+                    latestDay = borrowDay;
+                }
+            }
+        }
+        queue.add(new Entry(day, sequence++, command.copy(), tooLate));
+
+        // every command accepted from now on is dated on or after this day
+        long releaseDay = (long) latestDay - windowDays;
+        while (!queue.isEmpty() && queue.peek().day <= releaseDay) {
+            release(queue.poll());
+        }
+    }
+
+    /**
+     * Passes on all buffered commands, e.g. at the end of the input.
+     */
+    public void flush() {
+        while (!queue.isEmpty()) {
+            release(queue.poll());
+        }
+    }
+
+    private void release(Entry entry) {
+        if (entry.late) {
+            late.accept(entry.command);
+        } else {
+            next.accept(entry.command);
+        }
+    }
+
+    /**
+     * A buffered command with its date and input position, and whether it is a borrow that came too late.
+     */
+    private static class Entry implements Comparable<Entry> {
+        final int day;
+        final long sequence;
+        final CsvRecord command;
+        final boolean late;
+
+        Entry(int day, long sequence, CsvRecord command, boolean late) {
+            this.day = day;
+            this.sequence = sequence;
+            this.command = command;
+            this.late = late;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (day != other.day) {
+                return Integer.compare(day, other.day);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
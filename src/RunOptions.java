@@ -0,0 +1,84 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Splits the command-line arguments into positional file paths and optional
+ * "--name=value" settings (or "--name" flags) that tune how the system runs.
+ */
+public class RunOptions {
+    private final List<String> positional = new ArrayList<>();
+    private final Map<String, String> options = new HashMap<>();
+
+    /**
+     * Parses the given command-line arguments.
+     *
+     * @param args command-line arguments
+     */
+    public RunOptions(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) {
+                    options.put(arg.substring(2), "true");
+                } else {
+                    options.put(arg.substring(2, eq), arg.substring(eq + 1));
+                }
+            } else {
+                positional.add(arg);
+            }
+        }
+    }
+
+    /**
+     * Returns the positional argument at the given index.
+     *
+     * @param index position of the argument, ignoring options
+     * @return the argument, or null if there are not enough arguments
+     */
+    public String positional(int index) {
+        return index < positional.size() ? positional.get(index) : null;
+    }
+
+    /**
+     * Returns the number of positional arguments.
+     */
+    public int positionalCount() {
+        return positional.size();
+    }
+
+    /**
+     * Returns true if the option was given, with or without a value.
+     *
+     * @param name option name without the leading dashes
+     */
+    public boolean has(String name) {
+        return options.containsKey(name);
+    }
+
+    /**
+     * Returns the value of an option.
+     *
+     * @param name         option name without the leading dashes
+     * @param defaultValue value returned if the option is missing
+     * @return the option value
+     */
+    public String get(String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Returns the integer value of an option.
+     *
+     * @param name         option name without the leading dashes
+     * @param defaultValue value returned if the option is missing
+     * @return the option value as an integer
+     */
+    public int getInt(String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
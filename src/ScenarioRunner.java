@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs several independent command files against the same items and users, each on its own thread.
+ * <p>
+ * The loaded state is held by one processor that never runs commands. The item catalog, the search index,
+ * the compiled borrow policy and the item lists of the availability index are read-only and shared by all
+ * scenarios. Users are read through a copy-on-write overlay of the loaded registry, so a scenario copies
+ * only the users it changes, when it first changes them (see {@link CommandProcessor#CommandProcessor(
+ * CommandProcessor, OutputSink)}). Loans, holds, the overdue queue and the display cache belong to the
+ * processor of each scenario.
+ */
+public class ScenarioRunner {
+    private final CommandProcessor shared;
+
+    /**
+     * Output opener of a scenario.
+     */
+    public interface OutputOpener {
+
+        /**
+         * Opens the output sink for the scenario reading the given commands file.
+         *
+         * @param commandsFile path of the commands file
+         * @return an open output sink
+         * @throws IOException if the output cannot be opened
+         */
+        OutputSink open(String commandsFile) throws IOException;
+    }
+
+    /**
+     * Creates a runner over loaded items and users. The users must not be changed afterwards.
+     *
+     * @param items      catalog of library items, sorted by ID
+     * @param users      registry of users by ID, sorted by ID
+     * @param clock      source of the current date
+     * @param policy     borrowing rules
+     * @param batchByDay if true, the overdue sweep runs once per date (see {@link CommandProcessor#batchByDay})
+     */
+    public ScenarioRunner(ItemCatalog items, IntRegistry<User> users, LibraryClock clock, BorrowPolicy policy,
+                          boolean batchByDay) {
+        this.shared = new CommandProcessor(items, users, null, clock, policy);
+        shared.batchByDay = batchByDay;
+        // a scenario ends where a standalone run would stop, without stopping the others
+        shared.exitOnStop = false;
+        shared.searchIndex();
+    }
+
+    /**
+     * Runs every commands file on a pool of threads and waits until all of them have finished.
+     * A scenario that fails is reported and does not stop the others.
+     *
+     * @param commandsFiles paths of the commands files
+     * @param threads       number of scenarios running at the same time
+     * @param outputs       opens the output sink of each scenario
+     * @return the number of scenarios that failed
+     */
+    public int runAll(List<String> commandsFiles, int threads, OutputOpener outputs) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, commandsFiles.size())),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "scenario-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (String commandsFile : commandsFiles) {
+            results.add(workers.submit(() -> run(commandsFile, outputs)));
+        }
+        int failed = 0;
+        try {
+            for (Future<Boolean> result : results) {
+                if (!result.get()) {
+                    failed++;
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            failed = commandsFiles.size();
+        } finally {
+            workers.shutdownNow();
+        }
+        return failed;
+    }
+
+    /**
+     * Runs one commands file against the loaded state, without changing it.
+     *
+     * @param commandsFile path of the commands file
+     * @param outputs      opens the output sink of the scenario
+     * @return true if the scenario was processed, up to where a standalone run would stop
+     */
+    boolean run(String commandsFile, OutputOpener outputs) {
+        OutputSink output;
+        try {
+            output = outputs.open(commandsFile);
+        } catch (IOException e) {
+            System.out.println("Error:" + commandsFile);
+            e.printStackTrace();
+            return false;
+        }
+        try (RecordReader commands = RecordReader.open(commandsFile)) {
+            CommandProcessor processor = new CommandProcessor(shared, output);
+            CsvRecord command = new CsvRecord();
+            while (!processor.isStopped() && commands.next(command)) {
+                processor.processCommand(command);
+            }
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error:" + commandsFile);
+            e.printStackTrace();
+            return false;
+        } finally {
+            output.close();
+        }
+    }
+}
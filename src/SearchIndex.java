@@ -0,0 +1,225 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+
+/**
+ * Inverted index over the words of item titles, authors, publishers, directors and categories.
+ * Every word maps to the positions of the items containing it, in ID order, so a query only looks at
+ * the items of its rarest word instead of scanning the whole catalog.
+ * <p>
+ * Words are compared in lower case; a query word ending in "*" matches every word starting with it.
+ * All query words must match. Results are returned in ID order, optionally filtered by item type
+ * and availability, and cut off after a given number of items.
+ */
+public class SearchIndex {
+    private static final int[] NONE = new int[0];
+
+    private final String[] words;
+    private final int[][] postings;
+
+    private SearchIndex(String[] words, int[][] postings) {
+        this.words = words;
+        this.postings = postings;
+    }
+
+    /**
+     * Builds the index of a catalog in one pass over its rows.
+     * Creator and category values are split into words once per distinct value.
+     *
+     * @param items the item catalog
+     * @return the index
+     */
+    public static SearchIndex build(ItemCatalog items) {
+        Map<String, Postings> index = new HashMap<>();
+        Postings[][] creatorWords = wordsOf(index, items.creatorCount(), items::creatorName);
+        Postings[][] categoryWords = wordsOf(index, items.categoryCount(), items::categoryName);
+        List<String> titleWords = new ArrayList<>();
+        for (int row = 0; row < items.size(); row++) {
+            titleWords.clear();
+            split(items.titleAt(row), titleWords);
+            for (String word : titleWords) {
+                index.computeIfAbsent(word, w -> new Postings()).add(row);
+            }
+            for (Postings postings : creatorWords[items.creatorCodeAt(row)]) {
+                postings.add(row);
+            }
+            for (Postings postings : categoryWords[items.categoryCodeAt(row)]) {
+                postings.add(row);
+            }
+        }
+
+        String[] words = index.keySet().toArray(new String[0]);
+        Arrays.sort(words);
+        int[][] postings = new int[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            Postings list = index.get(words[i]);
+            postings[i] = Arrays.copyOf(list.rows, list.size);
+        }
+        return new SearchIndex(words, postings);
+    }
+
+    private static Postings[][] wordsOf(Map<String, Postings> index, int count,
+                                        IntFunction<String> value) {
+        Postings[][] result = new Postings[count][];
+        List<String> words = new ArrayList<>();
+        for (int code = 0; code < count; code++) {
+            words.clear();
+            split(value.apply(code), words);
+            result[code] = new Postings[words.size()];
+            for (int i = 0; i < words.size(); i++) {
+                result[code][i] = index.computeIfAbsent(words.get(i), w -> new Postings());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits text into lower-case words of letters and digits, without repeating a word.
+     *
+     * @param text  the text to split
+     * @param words receives the words
+     */
+    static void split(String text, List<String> words) {
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                String word = text.substring(start, i).toLowerCase(Locale.ROOT);
+                if (!words.contains(word)) {
+                    words.add(word);
+                }
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of distinct words in the index.
+     */
+    public int wordCount() {
+        return words.length;
+    }
+
+    /**
+     * Finds the items matching all words of a query.
+     *
+     * @param query     words separated by spaces; a word ending in "*" is a prefix
+     * @param typeCode  only items with this type code are returned; -1 for all types
+     * @param available if not null, only available (true) or borrowed (false) items are returned
+     * @param items     the catalog the index was built from
+     * @param loans     the active loans, used for the availability filter
+     * @param limit     maximum number of results
+     * @return positions of the matching items in ID order
+     */
+    public int[] search(String query, int typeCode, Boolean available, ItemCatalog items, LoanRegistry loans,
+                        int limit) {
+        List<int[]> lists = new ArrayList<>();
+        List<String> parts = new ArrayList<>();
+        for (String term : query.trim().split("\\s+")) {
+            boolean prefix = term.endsWith("*");
+            parts.clear();
+            split(term, parts);
+            for (int i = 0; i < parts.size(); i++) {
+                lists.add(prefix && i == parts.size() - 1 ? prefixPostings(parts.get(i)) : postings(parts.get(i)));
+            }
+        }
+        if (lists.isEmpty()) {
+            return NONE;
+        }
+        lists.sort((a, b) -> Integer.compare(a.length, b.length));
+
+        int[] result = new int[Math.min(limit, lists.get(0).length)];
+        int count = 0;
+        for (int row : lists.get(0)) {
+            if (count == result.length) {
+                break;
+            }
+            if (typeCode >= 0 && items.typeCodeAt(row) != typeCode) {
+                continue;
+            }
+            if (!containsAll(lists, row)) {
+                continue;
+            }
+            if (available != null && available == loans.isBorrowed(items.keyAt(row))) {
+                continue;
+            }
+            result[count++] = row;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static boolean containsAll(List<int[]> lists, int row) {
+        for (int i = 1; i < lists.size(); i++) {
+            if (Arrays.binarySearch(lists.get(i), row) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int[] postings(String word) {
+        int index = Arrays.binarySearch(words, word);
+        return index >= 0 ? postings[index] : NONE;
+    }
+
+    /**
+     * Returns the positions of the items containing any word with the given prefix.
+     */
+    private int[] prefixPostings(String prefix) {
+        int first = Arrays.binarySearch(words, prefix);
+        if (first < 0) {
+            first = -first - 1;
+        }
+        int last = first;
+        while (last < words.length && words[last].startsWith(prefix)) {
+            last++;
+        }
+        if (last - first == 1) {
+            return postings[first];
+        }
+        int total = 0;
+        for (int i = first; i < last; i++) {
+            total += postings[i].length;
+        }
+        int[] merged = new int[total];
+        int size = 0;
+        for (int i = first; i < last; i++) {
+            System.arraycopy(postings[i], 0, merged, size, postings[i].length);
+            size += postings[i].length;
+        }
+        Arrays.sort(merged);
+        // an item containing several words with the prefix is listed once
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || merged[unique - 1] != merged[i]) {
+                merged[unique++] = merged[i];
+            }
+        }
+        return Arrays.copyOf(merged, unique);
+    }
+
+    /**
+     * Growable list of item positions for one word.
+     */
+    private static class Postings {
+        int[] rows = new int[4];
+        int size = 0;
+
+        void add(int row) {
+            if (size > 0 && rows[size - 1] == row) {
+                return;
+            }
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+    }
+}
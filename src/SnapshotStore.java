@@ -0,0 +1,282 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Reads and writes binary snapshots of the library state: all items, all users with their penalties,
+ * the active loans, the reservation queues and the last processed borrow date. Loading a snapshot is a single sequential pass
+ * over a memory-mapped file, so a restart does not have to parse the text files and replay old commands.
+ * <p>
+ * Layout (big-endian): magic, version, journal sequence number, last borrow day, then the item, user, loan and
+ * hold sections, each starting with its entry count. Strings are stored as a length followed by UTF-8 bytes.
+ * Version 2 files have no hold section and version 1 files no journal sequence number either.
+ */
+public class SnapshotStore {
+    private static final int MAGIC = 0x4C494253; // "LIBS"
+    private static final int VERSION = 3;
+
+    private SnapshotStore() {
+    }
+
+    /**
+     * Writes the current state of the processor to a snapshot file.
+     * The file is written under a temporary name first and then renamed, so an existing
+     * snapshot is never left half-written.
+     *
+     * @param filePath  the path of the snapshot file
+     * @param processor the processor whose state is saved
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(String filePath, CommandProcessor processor) throws IOException {
+        save(filePath, processor, 0);
+    }
+
+    /**
+     * Writes the current state of the processor to a snapshot file, together with the sequence number
+     * of the last journal record it contains.
+     *
+     * @param filePath        the path of the snapshot file
+     * @param processor       the processor whose state is saved
+     * @param journalSequence sequence number of the last journal record included in the state
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(String filePath, CommandProcessor processor, long journalSequence) throws IOException {
+        Path target = Paths.get(filePath);
+        Path temp = Paths.get(filePath + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp.toFile()), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(journalSequence);
+            out.writeInt(processor.getLastProcessedBorrowDay());
+
+            out.writeInt(processor.items.size());
+            for (LibraryItem item : processor.items) {
+                writeItem(out, item);
+            }
+
+            out.writeInt(processor.users.size());
+            for (User user : processor.users) {
+                writeUser(out, user);
+            }
+
+            out.writeInt(processor.loans.size());
+            for (Loan loan : processor.loans.all()) {
+                out.writeInt(loan.item.id);
+                out.writeInt(loan.user.id);
+                out.writeInt(loan.borrowDay);
+            }
+
+            int[] holds = processor.holds.toArray();
+            out.writeInt(holds.length / 2);
+            for (int value : holds) {
+                out.writeInt(value);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeItem(DataOutputStream out, LibraryItem item) throws IOException {
+        if (item instanceof Book) {
+            Book book = (Book) item;
+            out.writeByte('B');
+            out.writeInt(book.id);
+            writeString(out, book.title);
+            writeString(out, book.author);
+            writeString(out, book.category);
+            writeString(out, book.type);
+        } else if (item instanceof Magazine) {
+            Magazine magazine = (Magazine) item;
+            out.writeByte('M');
+            out.writeInt(magazine.id);
+            writeString(out, magazine.title);
+            writeString(out, magazine.publisher);
+            writeString(out, magazine.category);
+            writeString(out, magazine.type);
+        } else {
+            DVD dvd = (DVD) item;
+            out.writeByte('D');
+            out.writeInt(dvd.id);
+            writeString(out, dvd.title);
+            writeString(out, dvd.director);
+            writeString(out, dvd.category);
+            writeString(out, dvd.runtime);
+            writeString(out, dvd.type);
+        }
+    }
+
+    private static void writeUser(DataOutputStream out, User user) throws IOException {
+        if (user instanceof Student) {
+            Student student = (Student) user;
+            out.writeByte('S');
+            out.writeInt(student.id);
+            writeString(out, student.name);
+            writeString(out, student.phone_number);
+            writeString(out, student.department);
+            writeString(out, student.faculty);
+            writeString(out, student.grade);
+        } else if (user instanceof AcademicMember) {
+            AcademicMember academic = (AcademicMember) user;
+            out.writeByte('A');
+            out.writeInt(academic.id);
+            writeString(out, academic.name);
+            writeString(out, academic.phone_number);
+            writeString(out, academic.department);
+            writeString(out, academic.faculty);
+            writeString(out, academic.title);
+        } else {
+            GuestUser guest = (GuestUser) user;
+            out.writeByte('G');
+            out.writeInt(guest.id);
+            writeString(out, guest.name);
+            writeString(out, guest.phone_number);
+            writeString(out, guest.occupation);
+        }
+        out.writeInt(user.penalty);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a snapshot file.
+     *
+     * @param filePath the path of the snapshot file
+     * @return the restored items, users, loans and holds
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static Snapshot load(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 8 || in.getInt() != MAGIC) {
+                throw new IOException("Not a library snapshot: " + filePath);
+            }
+            int version = in.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + filePath);
+            }
+            Snapshot snapshot = new Snapshot();
+            snapshot.journalSequence = version >= 2 ? in.getLong() : 0;
+            snapshot.lastProcessedBorrowDay = in.getInt();
+
+            int itemCount = in.getInt();
+            ItemCatalog.Builder items = new ItemCatalog.Builder();
+            for (int i = 0; i < itemCount; i++) {
+                items.add(readItem(in));
+            }
+            snapshot.items = items.build(null);
+
+            int userCount = in.getInt();
+            IntRegistry.Builder<User> users = new IntRegistry.Builder<>();
+            for (int i = 0; i < userCount; i++) {
+                User user = readUser(in);
+                users.add(user.id, user, i);
+            }
+            snapshot.users = users.build(null);
+
+            int loanCount = in.getInt();
+            snapshot.loans = new int[loanCount * 3];
+            for (int i = 0; i < snapshot.loans.length; i++) {
+                snapshot.loans[i] = in.getInt();
+            }
+
+            snapshot.holds = new int[version >= 3 ? in.getInt() * 2 : 0];
+            for (int i = 0; i < snapshot.holds.length; i++) {
+                snapshot.holds[i] = in.getInt();
+            }
+            return snapshot;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt snapshot: " + filePath, e);
+        }
+    }
+
+    private static LibraryItem readItem(ByteBuffer in) throws IOException {
+        byte kind = in.get();
+        int id = in.getInt();
+        switch (kind) {
+            case 'B':
+                return new Book(id, readString(in), readString(in), readString(in), readString(in));
+            case 'M':
+                return new Magazine(id, readString(in), readString(in), readString(in), readString(in));
+            case 'D':
+                return new DVD(id, readString(in), readString(in), readString(in), readString(in), readString(in));
+        }
+        throw new IOException("Unknown item kind " + kind);
+    }
+
+    private static User readUser(ByteBuffer in) throws IOException {
+        byte kind = in.get();
+        int id = in.getInt();
+        User user;
+        switch (kind) {
+            case 'S':
+                user = new Student(readString(in), id, readString(in), readString(in), readString(in), readString(in));
+                break;
+            case 'A':
+                user = new AcademicMember(readString(in), id, readString(in), readString(in), readString(in),
+                        readString(in));
+                break;
+            case 'G':
+                user = new GuestUser(readString(in), id, readString(in), readString(in));
+                break;
+            default:
+                throw new IOException("Unknown user kind " + kind);
+        }
+        user.penalty = in.getInt();
+        return user;
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+/**
+ * Library state read from a snapshot file.
+ */
+class Snapshot {
+    ItemCatalog items;
+    IntRegistry<User> users;
+    /** Active loans as consecutive (item ID, user ID, borrow day) triples. */
+    int[] loans;
+    /** Holds as consecutive (item ID, user ID) pairs, oldest first within each item's queue. */
+    int[] holds;
+    int lastProcessedBorrowDay;
+    /** Sequence number of the last journal record contained in this snapshot. */
+    long journalSequence;
+
+    /**
+     * Creates a command processor holding the restored state.
+     *
+     * @param output sink receiving the system responses
+     * @param clock  source of the current date
+     * @param policy borrowing rules, which also decide the due dates of the restored loans
+     * @return a processor with the snapshot's items, users, loans and holds
+     */
+    CommandProcessor toProcessor(OutputSink output, LibraryClock clock, BorrowPolicy policy) {
+        CommandProcessor processor = new CommandProcessor(items, users, output, clock, policy);
+        for (int i = 0; i < loans.length; i += 3) {
+            processor.restoreLoan(loans[i + 1], loans[i], loans[i + 2]);
+        }
+        for (int i = 0; i < holds.length; i += 2) {
+            processor.restoreHold(holds[i + 1], holds[i]);
+        }
+        processor.setLastProcessedBorrowDay(lastProcessedBorrowDay);
+        return processor;
+    }
+}
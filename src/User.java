@@ -1,17 +1,16 @@
-import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.Map;
 
 
 /**
  * Abstract class representing a generic user of the library system.
- * Each user has a name, ID, phone number, a map of borrowed items and their borrow dates, and a penalty amount.
+ * Each user has a name, ID, phone number, a map of borrowed items and their loans, and a penalty amount.
  */
-public abstract class User {
+public abstract class User implements Cloneable {
     protected String name;
     protected int id;
     protected String phone_number;
-    Map<LibraryItem, LocalDate> borrowedItems;
+    Map<LibraryItem, Loan> borrowedItems;
     int penalty;
 
 
@@ -31,22 +30,25 @@ public abstract class User {
     }
 
     /**
-     * Returns the maximum number of items this user type can borrow.
-     */
-    public abstract int getMaxItems();
-
-    /**
-     * Returns the maximum number of days this user type can keep an item before it's considered overdue.
+     * Returns a copy of this user with its own borrowed items and penalty. The descriptive fields
+     * (name, phone number and the subclass details) are shared with this user, since they never change.
+     *
+     * @return the copy
      */
-    public abstract int getOverdueLimit();
+    User copy() {
+        try {
+            User copy = (User) super.clone();
+            copy.borrowedItems = new HashMap<>(borrowedItems);
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
 
     /**
-     * Determines whether the user can borrow the specified item type.
-     *
-     * @param item the item to check
-     * @return true if allowed, false otherwise
+     * Returns the category of this user in the borrow policy, e.g. {@link BorrowPolicy#STUDENT}.
      */
-    public abstract boolean canBorrowItem(LibraryItem item);
+    public abstract int getCategory();
 
     /**
      * Returns formatted user information for display.
@@ -83,18 +85,8 @@ class Student extends User {
     }
 
     @Override
-    public int getMaxItems() {
-        return 5;
-    }
-
-    @Override
-    public int getOverdueLimit() {
-        return 30;
-    }
-
-    @Override
-    public boolean canBorrowItem(LibraryItem item) {
-        return !item.type.equals("reference");
+    public int getCategory() {
+        return BorrowPolicy.STUDENT;
     }
 
     @Override
@@ -132,18 +124,8 @@ class AcademicMember extends User {
     }
 
     @Override
-    public int getMaxItems() {
-        return 3;
-    }
-
-    @Override
-    public int getOverdueLimit() {
-        return 15;
-    }
-
-    @Override
-    public boolean canBorrowItem(LibraryItem item) {
-        return true;
+    public int getCategory() {
+        return BorrowPolicy.ACADEMIC;
     }
 
     @Override
@@ -175,18 +157,8 @@ class GuestUser extends User {
     }
 
     @Override
-    public int getMaxItems() {
-        return 1;
-    }
-
-    @Override
-    public int getOverdueLimit() {
-        return 7;
-    }
-
-    @Override
-    public boolean canBorrowItem(LibraryItem item) {
-        return !item.type.equals("rare") && !item.type.equals("limited");
+    public int getCategory() {
+        return BorrowPolicy.GUEST;
     }
 
     @Override
@@ -206,44 +178,42 @@ class UserParser {
 
 
     /**
-     * Parses the provided array into a corresponding User object.
-     * The first element of the array indicates the user type.
+     * Parses the provided record into a corresponding User object.
+     * The first field of the record indicates the user type.
+     * The ID is parsed directly from the record; Strings are only created for the stored fields.
      *
-     * @param parts a string array representing a user, typically from a line split by commas
+     * @param record a comma-separated line describing a user
      * @return a Student, AcademicMember, or GuestUser object; or null if the type is unrecognized
      */
-    public static User parse(String[] parts) {
-        switch (parts[0]) {
-            case "S": {
-                String name = parts[1];
-                int id = Integer.parseInt(parts[2]);
-                String phone_number = parts[3];
-                String department = parts[4];
-                String faculty = parts[5];
-                String grade = parts[6];
-
-                return new Student(name, id, phone_number, department, faculty, grade);
-            }
-            case "A": {
-                String name = parts[1];
-                int id = Integer.parseInt(parts[2]);
-                String phone_number = parts[3];
-                String department = parts[4];
-                String faculty = parts[5];
-                String title = parts[6];
-
-                return new AcademicMember(name, id, phone_number, department, faculty, title);
-            }
-            case "G": {
-                String name = parts[1];
-                int id = Integer.parseInt(parts[2]);
-                String phone_number = parts[3];
-                String occupation = parts[4];
-
-                return new GuestUser(name, id, phone_number, occupation);
-            }
+    public static User parse(CsvRecord record) {
+        if (record.fieldEquals(0, "S")) {
+            String name = record.field(1);
+            int id = record.intField(2);
+            String phone_number = record.field(3);
+            String department = record.field(4);
+            String faculty = record.field(5);
+            String grade = record.field(6);
+
+            return new Student(name, id, phone_number, department, faculty, grade);
+        }
+        if (record.fieldEquals(0, "A")) {
+            String name = record.field(1);
+            int id = record.intField(2);
+            String phone_number = record.field(3);
+            String department = record.field(4);
+            String faculty = record.field(5);
+            String title = record.field(6);
+
+            return new AcademicMember(name, id, phone_number, department, faculty, title);
+        }
+        if (record.fieldEquals(0, "G")) {
+            String name = record.field(1);
+            int id = record.intField(2);
+            String phone_number = record.field(3);
+            String occupation = record.field(4);
+
+            return new GuestUser(name, id, phone_number, occupation);
         }
         return null;
     }
 }
-